@@ -0,0 +1,207 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * AdmissionControl.java
+ *
+ * AdmissionControl decides, before a remote call is handed to a shard, whether the server takes it at all. A call
+ * that is turned away fails at once with a ServerBusyException instead of waiting in the queue of its shard, so a
+ * client that calls in a tight loop only slows down itself and not the other players of the shard.
+ *
+ * Every player has a token bucket that refills at game.admission.rate calls per second and holds at most
+ * game.admission.burst of them. A bucket is kept as the "theoretical arrival time" of the next call (the generic cell
+ * rate algorithm): one long, updated with a single compare and set and no lock. The bucket of a registered player is
+ * a field of the player's session, so no other player can drain it. Calls of names without a session share the
+ * slots of one AtomicLongArray (game.admission.slots of them), picked by a hash of the name that is seeded anew
+ * every time the server starts, so a client cannot choose a name that lands on the slot of another.
+ *
+ * Besides that no more than game.admission.maxCalls calls may run or wait at once, over all players, and a
+ * round may not have more than game.max.words words or game.max.tries tries per word, nor a batch more than
+ * game.max.batch guesses, nor a guess more than game.max.guess characters, nor a scoresAt call more than 101
+ * percentiles. A rate or call limit of 0 turns it off.
+ */
+import java.rmi.RemoteException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+public class AdmissionControl {
+    private static final long OVERLOADED_RETRY_MILLIS = 10;
+    private static final int MAX_PERCENTILES = 101;
+    private static final AtomicLongFieldUpdater<Player> ARRIVAL = AtomicLongFieldUpdater.newUpdater(Player.class,
+            "arrival");
+
+    private final long interval;
+    private final long tolerance;
+    private final AtomicLongArray buckets;
+    private final int mask;
+    private final long origin = System.nanoTime();
+    private final long seed = ThreadLocalRandom.current().nextLong();
+    private final int maxCalls;
+    private final AtomicInteger calls = new AtomicInteger();
+    private final int maxWords;
+    private final int maxTries;
+    private final int maxBatch;
+    private final int maxGuess;
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder overloaded = new LongAdder();
+
+    public AdmissionControl(double rate, int burst, int slots, int maxCalls, int maxWords, int maxTries,
+            int maxBatch, int maxGuess) {
+        this.interval = rate <= 0 ? 0 : (long) (1_000_000_000L / rate);
+        this.tolerance = interval * Math.max(1, burst);
+        this.buckets = new AtomicLongArray(Integer.highestOneBit(Math.max(1, slots)));
+        this.mask = buckets.length() - 1;
+        this.maxCalls = maxCalls <= 0 ? Integer.MAX_VALUE : maxCalls;
+        this.maxWords = maxWords;
+        this.maxTries = maxTries;
+        this.maxBatch = maxBatch;
+        this.maxGuess = maxGuess;
+    }
+
+    /**************************************************************************
+     * fromSystemProperties
+     *
+     * Builds the admission control from the game.admission and game.max
+     * system properties, with defaults that a person at a keyboard never
+     * reaches.
+     **************************************************************************/
+    public static AdmissionControl fromSystemProperties() {
+        double rate = 100;
+        String value = System.getProperty("game.admission.rate");
+        if (value != null) {
+            try {
+                rate = Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                GameLog.warn("Invalid game.admission.rate " + value + ", using " + rate + ".");
+            }
+        }
+        return new AdmissionControl(rate, Integer.getInteger("game.admission.burst", 200),
+                Integer.getInteger("game.admission.slots", 1 << 16),
+                Integer.getInteger("game.admission.maxCalls", 1024), Integer.getInteger("game.max.words", 1000),
+                Integer.getInteger("game.max.tries", 100), Integer.getInteger("game.max.batch", 1024),
+                Integer.getInteger("game.max.guess", 16384));
+    }
+
+    /**************************************************************************
+     * admit
+     *
+     * Takes cost tokens from the bucket of the session, or from the slot of
+     * the name if there is no session, or throws a ServerBusyException with
+     * the time until they are there if the bucket does not hold them. A cost
+     * larger than the burst costs the whole burst.
+     **************************************************************************/
+    public void admit(Player session, String player, int cost) throws ServerBusyException {
+        if (interval == 0 || cost <= 0)
+            return;
+        int slot = session == null ? slot(player) : -1;
+        long increment = Math.min(interval * cost, tolerance);
+        long now = System.nanoTime() - origin;
+        while (true) {
+            long arrival = session == null ? buckets.get(slot) : ARRIVAL.get(session);
+            long next = Math.max(arrival, now) + increment;
+            long early = next - now - tolerance;
+            if (early > 0) {
+                rateLimited.increment();
+                throw new ServerBusyException(ServerBusyException.Reason.RATE_LIMITED,
+                        (early + 999_999) / 1_000_000);
+            }
+            if (session == null ? buckets.compareAndSet(slot, arrival, next)
+                    : ARRIVAL.compareAndSet(session, arrival, next))
+                return;
+        }
+    }
+
+    /**************************************************************************
+     * enter
+     *
+     * Counts a call that is about to run or be handed to a shard, or throws a
+     * ServerBusyException if as many calls are in progress as the server
+     * takes. Every enter that returns must be followed by one exit.
+     **************************************************************************/
+    public void enter() throws ServerBusyException {
+        if (calls.incrementAndGet() > maxCalls) {
+            calls.decrementAndGet();
+            overloaded.increment();
+            throw new ServerBusyException(ServerBusyException.Reason.OVERLOADED, OVERLOADED_RETRY_MILLIS);
+        }
+    }
+
+    public void exit() {
+        calls.decrementAndGet();
+    }
+
+    /**************************************************************************
+     * checkRound
+     *
+     * Refuses a round with fewer than one or more than game.max.words words,
+     * or fewer than one or more than game.max.tries tries per word.
+     **************************************************************************/
+    public void checkRound(int numberOfWords, int attemptsPerWord) throws RemoteException {
+        if (numberOfWords < 1 || numberOfWords > maxWords)
+            throw new RemoteException("A round has 1 to " + maxWords + " words.");
+        if (attemptsPerWord < 1 || attemptsPerWord > maxTries)
+            throw new RemoteException("A round has 1 to " + maxTries + " tries per word.");
+    }
+
+    /**************************************************************************
+     * checkRound
+     *
+     * Same as above, for the "start i f" message of startGame. A message
+     * without two numbers after "start" is refused as well.
+     **************************************************************************/
+    public void checkRound(String[] clientMessage) throws RemoteException {
+        if (clientMessage == null || clientMessage.length < 3)
+            throw new RemoteException("Usage: start <words> <tries>");
+        try {
+            checkRound(Integer.parseInt(clientMessage[1]), Integer.parseInt(clientMessage[2]));
+        } catch (NumberFormatException e) {
+            throw new RemoteException("Usage: start <words> <tries>, where both are numbers.");
+        }
+    }
+
+    public void checkBatch(int guesses) throws RemoteException {
+        if (guesses > maxBatch)
+            throw new RemoteException("A batch has at most " + maxBatch + " guesses.");
+    }
+
+    /**************************************************************************
+     * checkGuess
+     *
+     * Refuses a guess longer than game.max.guess characters. A guessed phrase
+     * is written to the event log, and no round has a phrase that long.
+     **************************************************************************/
+    public void checkGuess(String guess) throws RemoteException {
+        if (guess != null && guess.length() > maxGuess)
+            throw new RemoteException("A guess has at most " + maxGuess + " characters.");
+    }
+
+    public void checkPercentiles(int percentiles) throws RemoteException {
+        if (percentiles > MAX_PERCENTILES)
+            throw new RemoteException("Ask for at most " + MAX_PERCENTILES + " percentiles.");
+    }
+
+    /** The number of calls refused because the player called too often. */
+    public long rateLimited() {
+        return rateLimited.sum();
+    }
+
+    /** The number of calls refused because the server was full. */
+    public long overloaded() {
+        return overloaded.sum();
+    }
+
+    /** The number of calls in progress. */
+    public int calls() {
+        return calls.get();
+    }
+
+    // unlike String.hashCode, names that collide under one seed do not collide under another
+    private int slot(String player) {
+        long h = seed;
+        for (int i = 0; i < player.length(); i++)
+            h = (h ^ player.charAt(i)) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+}
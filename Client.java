@@ -6,18 +6,35 @@
  * The purpose of this module is to act as the client side of a java RMI implemented phrase guessing game.
  * This module uses the localhost to connect to the network. Once rmiregistry and the server are running, the client
  * module asks the user to type in a username, this is to keep track of multiple players at one time. The User will then receive a prompt
- * asking them to type "start" followed by two integers representing number of words and number of tries respectively (start i f).
+ * asking them to type "start" followed by two integers representing number of words and number of tries respectively
+ * (start i f), optionally followed by difficulty tokens such as "length=4-8", "distinct=3-6" or "letters".
  * The user may also decide to quit the game at any time by typing '.' or to simply restart the current game by typing '*'.
- * This module then invokes methods from GameHandler remotely to handle the user input.
+ * This module then invokes methods from GameHandler remotely to handle the user input. Guesses use the GuessResult
+ * methods of the remote interface: the client keeps its own copy of the hidden phrase and only receives the letters
+ * each guess revealed. When the input is piped rather than typed, every guess that has already arrived is sent to
+ * the server in one guessBatch call; guesses the server did not apply because the round ended are read again.
+ * During a game, typing "?" asks the server for a hint. Between games, typing "top" shows the best players of the
+ * server and the player's own rank. A call the server refuses as busy is retried by the user after the wait the server
+ * asks for, and an error of the game, such as a round that is too large, is shown and the game goes on.
  *
  */
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 
 public class Client {
+    private static final int MAX_BATCH = 64;
+
+    // lines that were read ahead for a batch but not applied by the server
+    private static final Deque<String> unread = new ArrayDeque<>();
 
     public static void main(String[] args) throws Exception {
 
@@ -30,10 +47,12 @@ public class Client {
 
         String userInput = "";
         String serverResponse;
-        String[] checkResponse;
+        GuessResult result;
+        char[] hiddenPhrase = new char[0];
         PhraseGuessingGameServer remote;
         boolean playingGame = true;
         boolean gameStarted = false;
+        boolean piped = System.console() == null;
 
         try {
             remote = (PhraseGuessingGameServer) Naming.lookup("rmi://" + host + "/PhraseGuessingGameServer");
@@ -45,7 +64,10 @@ public class Client {
 
             System.out.println("CONNECTED TO THE GAME SERVER\n" + '\n');
             System.out.println("TO START A GAME ENTER: 'start i f'\n" + "i - number of words to guess\n"
-                    + "f - number of tries factor\n" + "type * to start a new game at any time\n"
+                    + "f - number of tries factor\n"
+                    + "optionally add length=a-b, distinct=a-b or letters to choose the words\n"
+                    + "type * to start a new game at any time\n" + "type ? for a hint\n"
+                    + "type top to see the leaderboard between games\n"
                     + "type . to exit the game session\n");
 
             while (playingGame == true) {
@@ -55,58 +77,93 @@ public class Client {
                 userInput = "";
 
                 while (!userInput.equals("*")) { // '*' indicates that the game should restart
+                    try {
+                        userInput = readLine(inFromUser);
+                        String[] clientMessage = userInput.split("\\s+");
 
-                    userInput = inFromUser.readLine();
-                    String[] clientMessage = userInput.split("\\s+");
-
-                    // GAME TERMINATION REQUESTED
-                    if (userInput.equals(".")) {
-                        serverResponse = remote.endGame(player);
-                        serverMessage(serverResponse);
-                        playingGame = false;
-                        userInput = "*";
-                    }
-                    // START OF NEW GAME
-                    else if (!gameStarted) {
-                        if (validateInput(clientMessage)) {
-                            serverResponse = remote.startGame(player, clientMessage);
-                            serverMessageWithReply(serverResponse);
-                            gameStarted = true;
-                        } else {
-                            System.out.println("Error. Follow the format 'start i f' to start the game. \n");
+                        // GAME TERMINATION REQUESTED
+                        if (userInput.equals(".")) {
+                            serverResponse = remote.endGame(player);
+                            serverMessage(serverResponse);
+                            playingGame = false;
                             userInput = "*";
-                            gameStarted = false;
                         }
-                    }
-                    // GAME RESTART REQUESTED
-                    else if (userInput.equals("*")) {
-                        serverResponse = remote.restartGame(player);
-                        serverMessage(serverResponse);
-                        gameStarted = false;
-                    }
-                    // GUESSED ONE LETTER
-                    else if (userInput.length() == 1 && userInput != "*") {
-                        serverResponse = remote.guessLetter(player, userInput);
-                        checkResponse = serverResponse.split("\\s+");
-                        // Checks if the client won or lost, and restarts the game if they have.
-                        if (checkResponse[0].equals("Winner!") || checkResponse[0].equals("Lost")) {
+                        // LEADERBOARD REQUESTED
+                        else if (!gameStarted && userInput.equals("top")) {
+                            for (Standing s : remote.topScores(10))
+                                System.out.println(s);
+                            Standing own = remote.standing(player);
+                            if (own != null)
+                                System.out.println("You: " + own + " of " + own.getPlayers() + " players\n");
                             userInput = "*";
-                            gameStarted = false;
+                        }
+                        // START OF NEW GAME
+                        else if (!gameStarted) {
+                            if (validateInput(clientMessage)) {
+                                result = remote.startRound(player, Integer.parseInt(clientMessage[1]),
+                                        Integer.parseInt(clientMessage[2]), Difficulty.parse(clientMessage, 3));
+                                hiddenPhrase = result.getPhrase().toCharArray();
+                                serverMessageWithReply(result.render(new String(hiddenPhrase)));
+                                gameStarted = true;
+                            } else {
+                                System.out.println("Error. Follow the format 'start i f' to start the game. \n");
+                                userInput = "*";
+                                gameStarted = false;
+                            }
+                        }
+                        // GAME RESTART REQUESTED
+                        else if (userInput.equals("*")) {
+                            serverResponse = remote.restartGame(player);
                             serverMessage(serverResponse);
-                        } else
-                            serverMessageWithReply(serverResponse);
-                    }
-                    // GUESSED WHOLE PHRASE
-                    else {
-                        serverResponse = remote.guessPhrase(player, userInput);
-                        checkResponse = serverResponse.split("\\s+");
-                        // Checks if the client won or lost, and restarts the game if they have.
-                        if (checkResponse[0].equals("Winner!") || checkResponse[0].equals("Lost")) {
-                            userInput = "*";
                             gameStarted = false;
-                            serverMessage(serverResponse);
-                        } else
-                            serverMessageWithReply(serverResponse);
+                        }
+                        // HINT REQUESTED
+                        else if (userInput.equals("?")) {
+                            serverMessageWithReply(remote.hint(player).toString());
+                        }
+                        // GUESSED ONE LETTER OR WHOLE PHRASE
+                        else {
+                            List<String> guesses = new ArrayList<>();
+                            guesses.add(userInput);
+                            if (piped)
+                                readGuesses(inFromUser, guesses);
+
+                            List<GuessResult> results;
+                            if (guesses.size() > 1)
+                                results = remote.guessBatch(player, guesses);
+                            else if (userInput.length() == 1)
+                                results = List.of(remote.revealLetter(player, userInput.charAt(0)));
+                            else
+                                results = List.of(remote.solvePhrase(player, userInput));
+                            for (int i = guesses.size() - 1; i >= results.size(); i--)
+                                unread.addFirst(guesses.get(i));
+
+                            for (GuessResult r : results) {
+                                r.applyTo(hiddenPhrase);
+                                // Checks if the client won or lost, and restarts the game if they have.
+                                if (r.isOver()) {
+                                    userInput = "*";
+                                    gameStarted = false;
+                                    serverMessage(r.render(null));
+                                } else
+                                    serverMessageWithReply(r.render(new String(hiddenPhrase)));
+                            }
+                        }
+                    } catch (RemoteException re) {
+                        // a call the server refused or failed is reported and the player goes on
+                        ServerBusyException busy = ServerBusyException.of(re);
+                        if (busy != null) {
+                            System.out.println(busy.getReason() == ServerBusyException.Reason.RATE_LIMITED
+                                    ? "Too many guesses too fast." : "The game server is busy.");
+                            System.out.println("Waiting " + busy.getRetryAfterMillis()
+                                    + "ms, then enter your input again.\n");
+                            Thread.sleep(busy.getRetryAfterMillis());
+                        } else if (re instanceof ServerException && re.getCause() != null) {
+                            System.out.println("Error. " + re.getCause().getMessage() + "\n");
+                        } else {
+                            throw re;
+                        }
+                        System.out.print("FROM USER: ");
                     }
                 }
             }
@@ -119,6 +176,37 @@ public class Client {
         }
     }
 
+    /**************************************************************************
+     * readLine
+     *
+     * Returns the next line of input, starting with the lines that were read
+     * ahead for a batch but not used.
+     **************************************************************************/
+    private static String readLine(BufferedReader in) throws IOException {
+        String line = unread.poll();
+        return line != null ? line : in.readLine();
+    }
+
+    /**************************************************************************
+     * readGuesses
+     *
+     * Adds the guesses that are already waiting in the input to the batch,
+     * without blocking. Stops at the end of the waiting input, at a '.', '*'
+     * or '?' command, or when the batch is full.
+     **************************************************************************/
+    private static void readGuesses(BufferedReader in, List<String> guesses) throws IOException {
+        while (guesses.size() < MAX_BATCH && (!unread.isEmpty() || in.ready())) {
+            String line = readLine(in);
+            if (line == null)
+                return;
+            if (line.equals(".") || line.equals("*") || line.equals("?")) {
+                unread.addFirst(line);
+                return;
+            }
+            guesses.add(line);
+        }
+    }
+
     /**************************************************************************
      * serverMessage
      *
@@ -143,14 +231,17 @@ public class Client {
      * validateInput
      *
      * checks if the initial client input is of format 'start i f' as
-     * described earlier. Returns true if the format is correct.
+     * described earlier, with optional difficulty tokens. Returns true if the
+     * format is correct.
      **************************************************************************/
     public static boolean validateInput(String[] in) {
 
         try {
-            if (in.length == 3)
-                if (in[0].equals("start") && Integer.parseInt(in[1]) > 0 && Integer.parseInt(in[2]) > 0)
+            if (in.length >= 3)
+                if (in[0].equals("start") && Integer.parseInt(in[1]) > 0 && Integer.parseInt(in[2]) > 0) {
+                    Difficulty.parse(in, 3);
                     return true;
+                }
         } catch (Exception e) {
         }
         return false;
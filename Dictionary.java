@@ -0,0 +1,326 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * Dictionary.java
+ *
+ * Dictionary is the word list of the game. All words are stored back to back in one byte array, with an offset table
+ * marking where each word starts, so a dictionary of millions of words costs two arrays on the heap instead of
+ * millions of String objects. Words are only turned into Strings when a phrase is built. Words are lowercased once
+ * while the dictionary loads, so phrases never need to be lowercased afterwards.
+ *
+ * A dictionary is read either from a text file with one word per line (like words.txt), or from a precompiled binary
+ * file that holds the offset table and the bytes as they are kept in memory. The binary file is memory mapped and
+ * copied in two bulk reads, so a large dictionary starts without any parsing. To compile one:
+ *
+ *   java Dictionary words.txt words.dict
+ *
+ * A DictionaryIndex of the words by length, distinct characters and character class is built on the first call to
+ * index(), which the server makes when it starts, and kept with the dictionary. The HintEngine of the dictionary is
+ * built the same way on the first call to hints(), which the server makes when it starts as well, and so is the hash
+ * table behind find(), which turns a word back into its index.
+ *
+ * The server shares one dictionary between all its handlers. It is read from the file named by the game.dictionary
+ * system property (text or binary, told apart by the binary header) or, by default, from words.txt on the classpath.
+ * A Dictionary never changes; the DictionaryManager replaces the shared one with a new Dictionary when the file does.
+ */
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class Dictionary {
+    private static final int MAGIC = 0x57444943; // "WDIC"
+    private static final int VERSION = 1;
+
+    private final byte[] data;
+    private final int[] offsets;
+    private final boolean ascii;
+    private volatile DictionaryIndex index;
+    private volatile HintEngine hints;
+    private volatile int[] lookup;
+
+    private Dictionary(byte[] data, int[] offsets) {
+        this.data = data;
+        this.offsets = offsets;
+        boolean onlyAscii = true;
+        for (int i = 0; i < data.length; i++) {
+            byte b = data[i];
+            if (b >= 'A' && b <= 'Z')
+                data[i] = (byte) (b + ('a' - 'A'));
+            else if (b < 0)
+                onlyAscii = false;
+        }
+        this.ascii = onlyAscii;
+    }
+
+    /**************************************************************************
+     * shared
+     *
+     * Returns the current dictionary of the server, loading it on first use.
+     **************************************************************************/
+    public static Dictionary shared() {
+        return DictionaryManager.shared().current();
+    }
+
+    static Dictionary loadDefault() {
+        String file = System.getProperty("game.dictionary");
+        try {
+            if (file != null)
+                return load(Paths.get(file));
+            try (InputStream in = Server.class.getResourceAsStream("words.txt")) {
+                if (in == null)
+                    throw new IOException("words.txt not found on the classpath");
+                return parse(in.readAllBytes());
+            }
+        } catch (IOException e) {
+            GameLog.warn("FILE IO ERROR: " + e.getMessage());
+            return new Dictionary(new byte[0], new int[1]);
+        }
+    }
+
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**************************************************************************
+     * averageLength
+     *
+     * Returns the average length of a word, rounded up, for sizing buffers.
+     **************************************************************************/
+    public int averageLength() {
+        return size() == 0 ? 0 : (data.length + size() - 1) / size();
+    }
+
+    public int length(int index) {
+        return offsets[index + 1] - offsets[index];
+    }
+
+    /** Returns one byte of the word at the given index, as stored. */
+    int byteAt(int index, int position) {
+        return data[offsets[index] + position] & 0xff;
+    }
+
+    /**************************************************************************
+     * index
+     *
+     * Returns the index of the words by length, distinct characters and
+     * character class, building it on the first call.
+     **************************************************************************/
+    public DictionaryIndex index() {
+        DictionaryIndex i = index;
+        if (i == null) {
+            synchronized (this) {
+                if (index == null)
+                    index = new DictionaryIndex(this);
+                i = index;
+            }
+        }
+        return i;
+    }
+
+    /**************************************************************************
+     * hints
+     *
+     * Returns the hint engine of the dictionary, building it on the first call.
+     **************************************************************************/
+    public HintEngine hints() {
+        HintEngine h = hints;
+        if (h == null) {
+            synchronized (this) {
+                if (hints == null)
+                    hints = new HintEngine(this);
+                h = hints;
+            }
+        }
+        return h;
+    }
+
+    /**************************************************************************
+     * find
+     *
+     * Returns the index of the given word, or -1 if it is not in the
+     * dictionary. Only words of an ASCII dictionary are found. The hash table
+     * behind it holds the indices of the words in an int array and is built
+     * on the first call.
+     **************************************************************************/
+    public int find(String word) {
+        if (!ascii)
+            return -1;
+        int[] table = lookup;
+        if (table == null) {
+            synchronized (this) {
+                if (lookup == null)
+                    lookup = buildLookup();
+                table = lookup;
+            }
+        }
+        int mask = table.length - 1;
+        for (int slot = spread(word.hashCode()) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int index = table[slot] - 1;
+            if (matches(index, word))
+                return index;
+        }
+        return -1;
+    }
+
+    private int[] buildLookup() {
+        int[] table = new int[Integer.highestOneBit(Math.max(1, size()) * 2) * 2];
+        int mask = table.length - 1;
+        for (int i = 0; i < size(); i++) {
+            // for ASCII bytes this is String.hashCode of the word
+            int h = 0;
+            for (int j = offsets[i]; j < offsets[i + 1]; j++)
+                h = 31 * h + data[j];
+            int slot = spread(h) & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = i + 1;
+        }
+        return table;
+    }
+
+    private boolean matches(int index, String word) {
+        int from = offsets[index];
+        if (offsets[index + 1] - from != word.length())
+            return false;
+        for (int j = 0; j < word.length(); j++)
+            if (data[from + j] != word.charAt(j))
+                return false;
+        return true;
+    }
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**************************************************************************
+     * word
+     *
+     * Returns the word at the given index as a lowercase String.
+     **************************************************************************/
+    public String word(int index) {
+        int from = offsets[index];
+        int length = offsets[index + 1] - from;
+        if (ascii)
+            return new String(data, from, length, StandardCharsets.ISO_8859_1);
+        return new String(data, from, length, StandardCharsets.UTF_8).toLowerCase();
+    }
+
+    /**************************************************************************
+     * appendTo
+     *
+     * Appends the word at the given index to the builder without creating a
+     * String for it.
+     **************************************************************************/
+    public void appendTo(int index, StringBuilder sb) {
+        if (!ascii) {
+            sb.append(word(index));
+            return;
+        }
+        for (int i = offsets[index]; i < offsets[index + 1]; i++)
+            sb.append((char) data[i]);
+    }
+
+    /**************************************************************************
+     * load
+     *
+     * Reads a dictionary from a file. Binary dictionaries are memory mapped,
+     * anything else is parsed as text with one word per line.
+     **************************************************************************/
+    public static Dictionary load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() >= 16 && buffer.getInt(0) == MAGIC)
+                return read(buffer);
+            byte[] text = new byte[buffer.remaining()];
+            buffer.get(text);
+            return parse(text);
+        }
+    }
+
+    /**************************************************************************
+     * parse
+     *
+     * Builds a dictionary from text with one word per line. The words are
+     * packed in place in the given array, dropping line breaks and blank lines.
+     **************************************************************************/
+    public static Dictionary parse(byte[] text) {
+        int lines = 1;
+        for (byte b : text)
+            if (b == '\n')
+                lines++;
+
+        int[] offsets = new int[lines + 1];
+        int count = 0;
+        int write = 0;
+        int start = 0;
+        for (int read = 0; read <= text.length; read++) {
+            if (read == text.length || text[read] == '\n') {
+                int end = read > start && text[read - 1] == '\r' ? read - 1 : read;
+                if (end > start) {
+                    offsets[count++] = write;
+                    System.arraycopy(text, start, text, write, end - start);
+                    write += end - start;
+                }
+                start = read + 1;
+            }
+        }
+        offsets[count] = write;
+        return new Dictionary(Arrays.copyOf(text, write), Arrays.copyOf(offsets, count + 1));
+    }
+
+    /**************************************************************************
+     * write
+     *
+     * Saves the dictionary in the binary format: a header with the magic
+     * number, version, word count and data length, then the offset table and
+     * the packed bytes.
+     **************************************************************************/
+    public void write(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16 + offsets.length * 4 + data.length);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(size()).putInt(data.length);
+        buffer.asIntBuffer().put(offsets);
+        buffer.position(16 + offsets.length * 4);
+        buffer.put(data);
+        Files.write(file, buffer.array());
+    }
+
+    private static Dictionary read(ByteBuffer buffer) throws IOException {
+        buffer.getInt();
+        int version = buffer.getInt();
+        if (version != VERSION)
+            throw new IOException("unsupported dictionary version " + version);
+        int count = buffer.getInt();
+        int length = buffer.getInt();
+
+        int[] offsets = new int[count + 1];
+        buffer.asIntBuffer().get(offsets);
+        buffer.position(buffer.position() + offsets.length * 4);
+        byte[] data = new byte[length];
+        buffer.get(data);
+        return new Dictionary(data, offsets);
+    }
+
+    /**************************************************************************
+     * main
+     *
+     * Compiles a text dictionary into the binary format.
+     **************************************************************************/
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: java Dictionary <words.txt> <words.dict>");
+            return;
+        }
+        Dictionary dictionary = load(Paths.get(args[0]));
+        dictionary.write(Paths.get(args[1]));
+        System.out.println("Wrote " + dictionary.size() + " words to " + args[1] + ".");
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * DictionaryIndex.java
+ *
+ * DictionaryIndex groups the words of a Dictionary by character class, length and number of distinct characters, so
+ * that a phrase can be drawn from only the words that match a Difficulty without looking at the others. It is built
+ * once, with two counting passes over the dictionary: every combination of class, length and distinct count is a
+ * cell, and the word numbers are stored in one int array ordered by cell, next to a table of where each cell starts.
+ * That is four bytes per word plus a fixed table, whatever the size of the dictionary.
+ *
+ * The cells that match a Difficulty are looked up once and kept, with the running total of their sizes. Drawing a
+ * word is then one random number and a binary search over at most a few thousand cells, no matter how many words
+ * the dictionary holds.
+ *
+ * The classes are words of letters a to z only, words with digits, and words with any other character. Lengths and
+ * distinct counts are counted in bytes, and those of 63 and more share the last cell.
+ */
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.random.RandomGenerator;
+
+public class DictionaryIndex {
+    private static final int LETTERS = 0;
+    private static final int DIGITS = 1;
+    private static final int OTHER = 2;
+    private static final int CLASSES = 3;
+    private static final int MAX = 64;
+    private static final int MAX_CACHED = 4096;
+
+    private final int[] words;
+    private final int[] cellStart = new int[CLASSES * MAX * MAX + 1];
+    private final ConcurrentHashMap<Difficulty, Selection> selections = new ConcurrentHashMap<>();
+
+    public DictionaryIndex(Dictionary dictionary) {
+        int size = dictionary.size();
+        this.words = new int[size];
+        long[] seen = new long[4];
+
+        // counting sort of the word numbers by cell
+        for (int i = 0; i < size; i++)
+            cellStart[cell(dictionary, i, seen) + 1]++;
+        for (int c = 1; c < cellStart.length; c++)
+            cellStart[c] += cellStart[c - 1];
+        int[] next = Arrays.copyOf(cellStart, cellStart.length - 1);
+        for (int i = 0; i < size; i++)
+            words[next[cell(dictionary, i, seen)]++] = i;
+    }
+
+    /**************************************************************************
+     * select
+     *
+     * Returns the words that match the difficulty. The selection is built on
+     * the first call for a difficulty and shared after that. The ranges are
+     * clamped to the cells first, so ranges that select the same cells share
+     * one selection, and at most MAX_CACHED selections are kept; past that a
+     * selection is built for every call.
+     **************************************************************************/
+    public Selection select(Difficulty difficulty) {
+        Difficulty key = new Difficulty(Math.min(difficulty.minLength, MAX - 1),
+                Math.min(difficulty.maxLength, MAX - 1), Math.min(difficulty.minDistinct, MAX - 1),
+                Math.min(difficulty.maxDistinct, MAX - 1), difficulty.lettersOnly);
+        Selection selection = selections.get(key);
+        if (selection != null)
+            return selection;
+        if (selections.size() >= MAX_CACHED)
+            return build(key);
+        return selections.computeIfAbsent(key, this::build);
+    }
+
+    private Selection build(Difficulty d) {
+        int[] starts = new int[CLASSES * MAX * MAX];
+        int[] ends = new int[starts.length];
+        int cells = 0;
+
+        for (int cls = 0; cls < (d.lettersOnly ? 1 : CLASSES); cls++) {
+            for (int length = d.minLength; length <= d.maxLength; length++) {
+                for (int distinct = d.minDistinct; distinct <= d.maxDistinct; distinct++) {
+                    int c = cellOf(cls, length, distinct);
+                    if (cellStart[c + 1] > cellStart[c]) {
+                        starts[cells] = cellStart[c];
+                        ends[cells] = (cells == 0 ? 0 : ends[cells - 1]) + cellStart[c + 1] - cellStart[c];
+                        cells++;
+                    }
+                }
+            }
+        }
+        return new Selection(words, Arrays.copyOf(starts, cells), Arrays.copyOf(ends, cells));
+    }
+
+    /**************************************************************************
+     * Selection
+     *
+     * The cells that match one difficulty: where each starts in the ordered
+     * word numbers, and the running total of their sizes.
+     **************************************************************************/
+    public static final class Selection {
+        private final int[] words;
+        private final int[] starts;
+        private final int[] ends;
+
+        private Selection(int[] words, int[] starts, int[] ends) {
+            this.words = words;
+            this.starts = starts;
+            this.ends = ends;
+        }
+
+        public int size() {
+            return ends.length == 0 ? 0 : ends[ends.length - 1];
+        }
+
+        /**********************************************************************
+         * sample
+         *
+         * Returns the number of a random matching word; every matching word
+         * is equally likely. The selection must not be empty.
+         **********************************************************************/
+        public int sample(RandomGenerator random) {
+            int r = random.nextInt(size());
+            int cell = Arrays.binarySearch(ends, r + 1);
+            if (cell < 0)
+                cell = -cell - 1;
+            int before = cell == 0 ? 0 : ends[cell - 1];
+            return words[starts[cell] + r - before];
+        }
+    }
+
+    private static int cell(Dictionary dictionary, int word, long[] seen) {
+        int length = dictionary.length(word);
+        boolean digit = false, other = false;
+        Arrays.fill(seen, 0);
+        for (int i = 0; i < length; i++) {
+            int b = dictionary.byteAt(word, i);
+            if (b >= '0' && b <= '9')
+                digit = true;
+            else if (b < 'a' || b > 'z')
+                other = true;
+            seen[b >>> 6] |= 1L << b;
+        }
+        int distinct = Long.bitCount(seen[0]) + Long.bitCount(seen[1]) + Long.bitCount(seen[2])
+                + Long.bitCount(seen[3]);
+        return cellOf(other ? OTHER : digit ? DIGITS : LETTERS, Math.min(length, MAX - 1), Math.min(distinct, MAX - 1));
+    }
+
+    private static int cellOf(int cls, int length, int distinct) {
+        return (cls * MAX + length) * MAX + distinct;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * DictionaryManager.java
+ *
+ * DictionaryManager holds the Dictionary the server is playing with and replaces it while the server runs. The
+ * current dictionary sits in an AtomicReference. A reload reads the new file and builds its DictionaryIndex and its
+ * HintEngine on the manager's own thread, and only then swaps the reference, so no guess or round ever waits for a
+ * dictionary to load.
+ * A round takes the current dictionary once and keeps using it, and phrases already dealt are plain Strings, so games
+ * in progress are not touched by a swap; the next round is drawn from the new words.
+ *
+ * When the dictionary comes from the file named by game.dictionary, watch() starts a thread that watches the file's
+ * directory and reloads when the file is written, created or renamed into place. Several events in a row, as an
+ * editor or a copy produces them, are waited out and cause one reload. A file that cannot be read or holds no words is
+ * logged and the old dictionary stays. The words.txt on the classpath is never reloaded.
+ *
+ * Whoever keeps something derived from the dictionary, like the PhrasePool, registers with onSwap to hear about a
+ * new one.
+ */
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+public class DictionaryManager {
+    private static final long SETTLE_MILLIS = 250;
+
+    private final AtomicReference<Dictionary> current;
+    private final Path file;
+    private final CopyOnWriteArrayList<Consumer<Dictionary>> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong failedReloads = new AtomicLong();
+    private volatile long lastReloadMillis;
+    private Thread watcher;
+    private WatchService watchService;
+
+    public DictionaryManager(Dictionary dictionary, Path file) {
+        this.current = new AtomicReference<>(dictionary);
+        this.file = file == null ? null : file.toAbsolutePath();
+    }
+
+    /**************************************************************************
+     * shared
+     *
+     * Returns the manager of the server's dictionary, loading the dictionary
+     * on first use.
+     **************************************************************************/
+    public static DictionaryManager shared() {
+        return Shared.INSTANCE;
+    }
+
+    private static class Shared {
+        static final DictionaryManager INSTANCE = create();
+
+        private static DictionaryManager create() {
+            String file = System.getProperty("game.dictionary");
+            return new DictionaryManager(Dictionary.loadDefault(), file == null ? null : Paths.get(file));
+        }
+    }
+
+    /** Returns the dictionary new rounds are drawn from. */
+    public Dictionary current() {
+        return current.get();
+    }
+
+    public void onSwap(Consumer<Dictionary> listener) {
+        listeners.add(listener);
+    }
+
+    public long reloads() {
+        return reloads.get();
+    }
+
+    public long failedReloads() {
+        return failedReloads.get();
+    }
+
+    /** How long the last successful reload took to read and index the file. */
+    public long lastReloadMillis() {
+        return lastReloadMillis;
+    }
+
+    /**************************************************************************
+     * reload
+     *
+     * Reads the file again, indexes it and swaps it in. Returns false, and
+     * keeps the old dictionary, if there is no file or it cannot be used. Runs
+     * on the calling thread; the watcher calls it on its own.
+     **************************************************************************/
+    public synchronized boolean reload() {
+        if (file == null)
+            return false;
+        long start = System.nanoTime();
+        Dictionary next;
+        try {
+            next = Dictionary.load(file);
+        } catch (IOException | RuntimeException e) {
+            failedReloads.incrementAndGet();
+            GameLog.warn("Could not reload the dictionary " + file + ": " + e.getMessage());
+            return false;
+        }
+        if (next.size() == 0) {
+            failedReloads.incrementAndGet();
+            GameLog.warn("Not reloading the dictionary " + file + ": it holds no words.");
+            return false;
+        }
+        // built here so that no shard thread stalls on them in the first round or hint after the swap
+        next.index();
+        next.hints();
+        current.set(next);
+        lastReloadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        reloads.incrementAndGet();
+        for (Consumer<Dictionary> listener : listeners)
+            listener.accept(next);
+        GameLog.info("Reloaded the dictionary " + file + ": " + next.size() + " words in " + lastReloadMillis + "ms.");
+        return true;
+    }
+
+    /**************************************************************************
+     * watch
+     *
+     * Starts watching the dictionary file, if there is one and it is not
+     * watched yet.
+     **************************************************************************/
+    public synchronized void watch() throws IOException {
+        if (file == null || watcher != null)
+            return;
+        watchService = file.getFileSystem().newWatchService();
+        file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        watcher = new Thread(this::run, "dictionary-watcher");
+        watcher.setDaemon(true);
+        watcher.setPriority(Thread.MIN_PRIORITY);
+        watcher.start();
+    }
+
+    public synchronized void shutdown() {
+        if (watchService == null)
+            return;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+
+    /**************************************************************************
+     * run
+     *
+     * The watcher thread. Waits for an event on the file, then for the file to
+     * be quiet for a moment, and reloads it.
+     **************************************************************************/
+    private void run() {
+        WatchService service = watchService;
+        try {
+            while (true) {
+                boolean changed = touchesFile(service.take());
+                WatchKey key;
+                while ((key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null)
+                    changed |= touchesFile(key);
+                if (changed)
+                    reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+
+    private boolean touchesFile(WatchKey key) {
+        boolean touches = false;
+        for (WatchEvent<?> event : key.pollEvents())
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context()))
+                touches = true;
+        key.reset();
+        return touches;
+    }
+}
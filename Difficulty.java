@@ -0,0 +1,132 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * Difficulty.java
+ *
+ * Difficulty restricts the words a round's phrase is drawn from: a range of word lengths, a range of distinct
+ * letters per word, and whether only words made of letters a to z may be used. Clients write it as extra tokens
+ * after "start i f":
+ *
+ *   length=4-8       words of 4 to 8 characters (length=5 for exactly 5)
+ *   distinct=3-6     words with 3 to 6 different characters
+ *   letters          no words with digits or punctuation, such as "10th" or "o'clock"
+ *
+ * Difficulty is immutable and serializable, so it can be sent with a remote call and used as a cache key.
+ */
+import java.io.InvalidObjectException;
+import java.io.Serializable;
+
+public final class Difficulty implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** No restriction: every word of the dictionary may be drawn. */
+    public static final Difficulty ANY = new Difficulty(1, Integer.MAX_VALUE, 1, Integer.MAX_VALUE, false);
+
+    final int minLength;
+    final int maxLength;
+    final int minDistinct;
+    final int maxDistinct;
+    final boolean lettersOnly;
+
+    public Difficulty(int minLength, int maxLength, int minDistinct, int maxDistinct, boolean lettersOnly) {
+        if (minLength < 1 || maxLength < minLength || minDistinct < 1 || maxDistinct < minDistinct)
+            throw new IllegalArgumentException("Empty range of word lengths or distinct letters.");
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+        this.minDistinct = minDistinct;
+        this.maxDistinct = maxDistinct;
+        this.lettersOnly = lettersOnly;
+    }
+
+    /**************************************************************************
+     * parse
+     *
+     * Reads a Difficulty from the tokens starting at the given index, which may
+     * be past the end for no restriction. Throws IllegalArgumentException for a
+     * token it does not understand.
+     **************************************************************************/
+    public static Difficulty parse(String[] tokens, int from) {
+        int minLength = 1, maxLength = Integer.MAX_VALUE;
+        int minDistinct = 1, maxDistinct = Integer.MAX_VALUE;
+        boolean lettersOnly = false;
+
+        for (int i = from; i < tokens.length; i++) {
+            String token = tokens[i];
+            if (token.equals("letters")) {
+                lettersOnly = true;
+            } else if (token.startsWith("length=")) {
+                int[] range = range(token.substring(7));
+                minLength = range[0];
+                maxLength = range[1];
+            } else if (token.startsWith("distinct=")) {
+                int[] range = range(token.substring(9));
+                minDistinct = range[0];
+                maxDistinct = range[1];
+            } else {
+                throw new IllegalArgumentException("Unknown difficulty " + token);
+            }
+        }
+        if (minLength == 1 && maxLength == Integer.MAX_VALUE && minDistinct == 1 && maxDistinct == Integer.MAX_VALUE
+                && !lettersOnly)
+            return ANY;
+        return new Difficulty(minLength, maxLength, minDistinct, maxDistinct, lettersOnly);
+    }
+
+    private static int[] range(String range) {
+        int dash = range.indexOf('-');
+        if (dash < 0) {
+            int n = Integer.parseInt(range);
+            return new int[] { n, n };
+        }
+        return new int[] { Integer.parseInt(range.substring(0, dash)), Integer.parseInt(range.substring(dash + 1)) };
+    }
+
+    /**************************************************************************
+     * readResolve
+     *
+     * Deserialization does not run the constructor, so a Difficulty sent by a
+     * client goes through it here and is refused if its ranges are empty.
+     **************************************************************************/
+    private Object readResolve() throws InvalidObjectException {
+        try {
+            Difficulty d = new Difficulty(minLength, maxLength, minDistinct, maxDistinct, lettersOnly);
+            return d.equals(ANY) ? ANY : d;
+        } catch (IllegalArgumentException e) {
+            throw new InvalidObjectException(e.getMessage());
+        }
+    }
+
+    public boolean isAny() {
+        return equals(ANY);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Difficulty))
+            return false;
+        Difficulty d = (Difficulty) o;
+        return minLength == d.minLength && maxLength == d.maxLength && minDistinct == d.minDistinct
+                && maxDistinct == d.maxDistinct && lettersOnly == d.lettersOnly;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = minLength;
+        h = h * 31 + maxLength;
+        h = h * 31 + minDistinct;
+        h = h * 31 + maxDistinct;
+        return h * 31 + (lettersOnly ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (minLength != 1 || maxLength != Integer.MAX_VALUE)
+            sb.append("length=").append(minLength).append('-').append(maxLength).append(' ');
+        if (minDistinct != 1 || maxDistinct != Integer.MAX_VALUE)
+            sb.append("distinct=").append(minDistinct).append('-').append(maxDistinct).append(' ');
+        if (lettersOnly)
+            sb.append("letters ");
+        return sb.length() == 0 ? "any" : sb.substring(0, sb.length() - 1);
+    }
+}
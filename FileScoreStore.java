@@ -0,0 +1,217 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * FileScoreStore.java
+ *
+ * FileScoreStore keeps the scores in memory and writes them behind to an append-only log file. save only updates the
+ * in-memory table and marks the player dirty; a background thread wakes up every flush interval, appends one record
+ * per dirty player and forces the batch to disk. A player who scores many times between two flushes costs one record.
+ *
+ * Each record is the player's name and score, so the last record of a player wins. When the log holds far more
+ * records than there are players, the writer compacts it by writing the current table to a new file and moving it
+ * over the log. On start the log is read back into the table; a record torn by a crash is cut off.
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+public class FileScoreStore implements ScoreStore {
+    private static final long FLUSH_MILLIS = 200;
+    private static final int COMPACT_MIN_RECORDS = 10000;
+
+    private final Path file;
+    private final ConcurrentHashMap<String, Integer> scores = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    private FileChannel channel;
+    private DataOutputStream out;
+    private long records;
+
+    public FileScoreStore(Path file) throws IOException {
+        this.file = file;
+        recover();
+        open();
+
+        writer = new Thread(this::writeBehind, "score-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public int load(String player) {
+        return scores.getOrDefault(player, 0);
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, Integer> action) {
+        scores.forEach(action);
+    }
+
+    @Override
+    public void save(String player, int score) {
+        scores.put(player, score);
+        dirty.add(player);
+    }
+
+    /**************************************************************************
+     * close
+     *
+     * Stops the writer thread after it has written out the last batch. The
+     * writer is woken by unpark rather than interrupted, as an interrupt
+     * during a write closes the FileChannel under it.
+     **************************************************************************/
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int size() {
+        return scores.size();
+    }
+
+    private void writeBehind() {
+        while (!closed) {
+            long deadline = System.nanoTime() + FLUSH_MILLIS * 1_000_000L;
+            for (long left = FLUSH_MILLIS * 1_000_000L; left > 0 && !closed; left = deadline - System.nanoTime())
+                LockSupport.parkNanos(this, left);
+            try {
+                flush();
+                if (records > COMPACT_MIN_RECORDS && records > 4L * scores.size())
+                    compact();
+            } catch (IOException e) {
+                GameLog.warn("FILE IO ERROR: " + e.getMessage() + ". Retrying the score batch.");
+            }
+        }
+        try {
+            // the scores saved while the last batch of the loop was written
+            flush();
+            out.close();
+        } catch (IOException e) {
+            GameLog.warn("FILE IO ERROR: " + e.getMessage());
+        }
+    }
+
+    /**************************************************************************
+     * flush
+     *
+     * Appends a record for every dirty player and forces the batch to disk.
+     * A player is taken off the dirty set before their score is read, so an
+     * update racing with the flush is written by the next one. If the batch
+     * cannot be written, its players are marked dirty again.
+     **************************************************************************/
+    private void flush() throws IOException {
+        if (dirty.isEmpty())
+            return;
+        List<String> batch = new ArrayList<>();
+        for (String player : dirty) {
+            dirty.remove(player);
+            batch.add(player);
+        }
+        try {
+            for (String player : batch)
+                write(out, player, scores.get(player));
+            out.flush();
+            channel.force(false);
+            records += batch.size();
+        } catch (IOException e) {
+            dirty.addAll(batch);
+            throw e;
+        }
+    }
+
+    /**************************************************************************
+     * compact
+     *
+     * Replaces the log with one record per player.
+     **************************************************************************/
+    private void compact() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".compact");
+        long written = 0;
+        try (FileChannel target = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+                DataOutputStream compacted = new DataOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(target), 1 << 16))) {
+            for (Map.Entry<String, Integer> e : scores.entrySet()) {
+                write(compacted, e.getKey(), e.getValue());
+                written++;
+            }
+            compacted.flush();
+            target.force(true);
+        }
+
+        out.close();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+        records = written;
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+    }
+
+    /**************************************************************************
+     * recover
+     *
+     * Reads the log back into the table and cuts off a torn last record.
+     **************************************************************************/
+    private void recover() throws IOException {
+        if (!Files.exists(file))
+            return;
+
+        long good = 0;
+        try (InputStream raw = Files.newInputStream(file);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 16))) {
+            while (true) {
+                byte[] name = new byte[in.readUnsignedShort()];
+                in.readFully(name);
+                int score = in.readInt();
+                scores.put(new String(name, StandardCharsets.UTF_8), score);
+                good += 2 + name.length + 4;
+                records++;
+            }
+        } catch (EOFException e) {
+            // end of the log
+        }
+
+        if (good < Files.size(file)) {
+            try (FileChannel truncate = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                truncate.truncate(good);
+            }
+        }
+    }
+
+    private static void write(DataOutputStream out, String player, int score) throws IOException {
+        byte[] name = player.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(name.length);
+        out.write(name);
+        out.writeInt(score);
+    }
+}
@@ -0,0 +1,468 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * GameBenchmark.java
+ *
+ * GameBenchmark is the microbenchmark suite for the hot paths of the GameHandler. Every benchmark warms up first,
+ * then measures for a fixed time and reports throughput, latency percentiles and the number of bytes allocated per
+ * operation (read from the JVM's per-thread allocation counters, the same source the JMH GC profiler uses).
+ *
+ * This is not JMH. Every benchmark runs in the same JVM as the ones before it, with one fixed second of warmup and
+ * no blackhole for the results, so profile pollution and dead code elimination can move the numbers. Use them to
+ * compare two builds on the same machine with the same arguments, not as absolute costs.
+ *
+ *   helpers     checkLetter, PhraseState.reveal, hideWords, getRandomWords and checkPhrase on phrases of 1 to
+ *               1000 words
+ *   roundtrip   guessLetter on a local GameHandler from several threads, for 1 to 10k players and 1 to 1000 words
+ *   contention  guesses per second of the GameHandler against a wrapper that serializes every call on one
+ *               monitor the way the old synchronized GameHandler did
+ *   sessions    heap and direct memory per idle session, and garbage collection time, for sessions kept in the
+ *               map of a SessionRegistry against the same sessions parked in an OffHeapSessionStore
+ *
+ * Usage: java GameBenchmark helpers [seconds]
+ *        java GameBenchmark roundtrip [threads] [seconds]
+ *        java GameBenchmark contention [threads] [seconds] [words]
+ *        java GameBenchmark sessions [players] [seconds]
+ */
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+public class GameBenchmark {
+
+    private static final String LETTERS = "etaoinshrdlcumwfgypbvkjxqz";
+    private static final int[] PHRASE_WORDS = { 1, 10, 100, 1000 };
+    private static final int[] PLAYERS = { 1, 10, 100, 1000, 10000 };
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+
+    private static PrintStream console = System.out;
+
+    /**************************************************************************
+     * Operation
+     *
+     * One benchmarked call. The argument is the iteration number, so operations
+     * can cycle through their inputs without allocating.
+     **************************************************************************/
+    interface Operation {
+        void run(long iteration) throws Exception;
+    }
+
+    /**************************************************************************
+     * ThreadOperation
+     *
+     * One benchmarked call made by one of several threads. Receives the index
+     * of the calling thread and that thread's iteration number.
+     **************************************************************************/
+    interface ThreadOperation {
+        void run(int thread, long iteration) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "helpers";
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        // the handler logs every phrase it generates, keep that off the console
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        switch (mode) {
+        case "helpers":
+            helpers(intArg(args, 1, 2));
+            break;
+        case "roundtrip":
+            roundtrip(intArg(args, 1, cores), intArg(args, 2, 1));
+            break;
+        case "contention":
+            contention(intArg(args, 1, cores), intArg(args, 2, 5), intArg(args, 3, 5));
+            break;
+        case "sessions":
+            sessions(intArg(args, 1, 200000), intArg(args, 2, 5));
+            break;
+        default:
+            console.println("Unknown benchmark " + mode + ". Use helpers, roundtrip, contention or sessions.");
+        }
+    }
+
+    /**************************************************************************
+     * helpers
+     *
+     * Benchmarks the static helpers of the GameHandler on phrases of each size
+     * in PHRASE_WORDS, single threaded.
+     **************************************************************************/
+    public static void helpers(int seconds) throws Exception {
+        Dictionary words = Dictionary.shared();
+
+        for (int n : PHRASE_WORDS) {
+            String phrase = GameHandler.getRandomWords(words, n);
+            String hidden = GameHandler.hideWords(phrase);
+            String copy = new String(phrase);
+            String[] letters = new String[LETTERS.length()];
+            for (int i = 0; i < letters.length; i++)
+                letters[i] = LETTERS.substring(i, i + 1);
+
+            measure("checkLetter    words=" + n, seconds,
+                    i -> GameHandler.checkLetter(letters[(int) (i % letters.length)], phrase, hidden, 100));
+            PhraseState round = new PhraseState(phrase);
+            measure("reveal         words=" + n, seconds,
+                    i -> round.reveal(LETTERS.charAt((int) (i % LETTERS.length()))));
+            measure("hideWords      words=" + n, seconds, i -> GameHandler.hideWords(phrase));
+            measure("getRandomWords words=" + n, seconds, i -> GameHandler.getRandomWords(words, n));
+            measure("checkPhrase    words=" + n, seconds, i -> GameHandler.checkPhrase(copy, phrase));
+        }
+    }
+
+    /**************************************************************************
+     * roundtrip
+     *
+     * Benchmarks guessLetter through a local GameHandler. For every phrase size
+     * and player count the players are split between the threads, and each thread
+     * guesses for its players in turn, starting a new round whenever one ends.
+     **************************************************************************/
+    public static void roundtrip(int threads, int seconds) throws Exception {
+        GameHandler handler = new GameHandler();
+        try {
+            for (int n : PHRASE_WORDS) {
+                for (int players : PLAYERS) {
+                    int t = Math.min(threads, players);
+                    String[][] names = new String[t][];
+                    for (int i = 0; i < t; i++) {
+                        names[i] = new String[(players - i + t - 1) / t];
+                        for (int j = 0; j < names[i].length; j++) {
+                            names[i][j] = "bench-" + n + "-" + players + "-" + (j * t + i);
+                            handler.initializePlayer(names[i][j]);
+                            handler.startGame(names[i][j], new String[] { "start", Integer.toString(n), "26" });
+                        }
+                    }
+                    String[] start = { "start", Integer.toString(n), "26" };
+
+                    measure("guessLetter words=" + n + " players=" + players, t, seconds, (thread, i) -> {
+                        String[] own = names[thread];
+                        String player = own[(int) (i % own.length)];
+                        String letter = LETTERS.substring((int) (i / own.length % 26), (int) (i / own.length % 26) + 1);
+                        String response = handler.guessLetter(player, letter);
+                        if (response.startsWith("Winner!") || response.startsWith("Lost"))
+                            handler.startGame(player, start);
+                    });
+
+                    for (String[] own : names)
+                        for (String player : own)
+                            handler.endGame(player);
+                }
+            }
+        } finally {
+            UnicastRemoteObject.unexportObject(handler, true);
+        }
+    }
+
+    /**************************************************************************
+     * contention
+     *
+     * Doubles the number of threads up to the given count and reports the
+     * guesses per second of the GameHandler next to the same workload run through
+     * a wrapper that holds one global monitor for every call.
+     **************************************************************************/
+    public static void contention(int threads, int seconds, int words) throws Exception {
+        GameHandler handler = new GameHandler();
+        try {
+            for (int t = 1; t <= threads; t *= 2) {
+                double global = contention(new GlobalLockServer(handler), t, seconds, words);
+                double perPlayer = contention(handler, t, seconds, words);
+                console.printf("threads=%-3d global lock: %,12.0f guesses/s   per-player: %,12.0f guesses/s   x%.2f%n",
+                        t, global, perPlayer, perPlayer / global);
+            }
+        } finally {
+            UnicastRemoteObject.unexportObject(handler, true);
+        }
+    }
+
+    /**************************************************************************
+     * contention
+     *
+     * Runs the given number of threads against the server for the given number
+     * of seconds. Every thread registers its own player and keeps starting rounds
+     * and guessing letters in frequency order. Returns the guesses per second.
+     **************************************************************************/
+    public static double contention(PhraseGuessingGameServer server, int threads, int seconds, int words)
+            throws Exception {
+        LongAdder guesses = new LongAdder();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+        String run = Long.toString(System.nanoTime(), 36);
+
+        for (int i = 0; i < threads; i++) {
+            String player = "bench-" + run + "-" + i;
+            workers[i] = new Thread(() -> {
+                try {
+                    server.initializePlayer(player);
+                    String[] start = { "start", Integer.toString(words), "26" };
+                    ready.countDown();
+                    go.await();
+                    long count = 0;
+                    while (System.nanoTime() < deadline[0]) {
+                        server.startGame(player, start);
+                        for (int l = 0; l < LETTERS.length(); l++) {
+                            count++;
+                            String response = server.guessLetter(player, LETTERS.substring(l, l + 1));
+                            if (response.startsWith("Winner!") || response.startsWith("Lost"))
+                                break;
+                        }
+                    }
+                    guesses.add(count);
+                    server.endGame(player);
+                } catch (RemoteException | InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            workers[i].start();
+        }
+
+        ready.await();
+        long begin = System.nanoTime();
+        deadline[0] = begin + seconds * 1_000_000_000L;
+        go.countDown();
+        for (Thread worker : workers)
+            worker.join();
+
+        return guesses.sum() / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    /**************************************************************************
+     * sessions
+     *
+     * Fills a SessionRegistry with players that are each in a round of three
+     * words with three letters guessed, once kept in the map and once parked
+     * off the heap. For both it prints the heap and direct memory per session,
+     * the time of a full collection and the young collections that a few
+     * seconds of allocating short lived garbage cause while the sessions live.
+     * Run it with a fixed heap and young generation, such as -Xms3g -Xmx3g
+     * -Xmn256m, or the map's larger heap also buys it a larger young
+     * generation and the young collections cannot be compared.
+     **************************************************************************/
+    public static void sessions(int players, int seconds) throws Exception {
+        Dictionary words = Dictionary.shared();
+        for (boolean offHeap : new boolean[] { false, true }) {
+            long before = usedHeap();
+            SessionRegistry registry = new SessionRegistry(Integer.MAX_VALUE,
+                    offHeap ? new OffHeapSessionStore() : null);
+            for (int i = 0; i < players; i++) {
+                Player p = new Player("player-" + i);
+                p.totalScore = i % 1000;
+                p.round = new PhraseState(GameHandler.getRandomWords(words, 3));
+                for (int g = 0; g < 3; g++)
+                    p.round.reveal(LETTERS.charAt(g));
+                p.numberOfTries = 6;
+                registry.register(p);
+            }
+            if (offHeap)
+                registry.parkIdle(Long.MIN_VALUE / 2, words);
+            long heap = usedHeap() - before;
+
+            long fullGc = System.nanoTime();
+            for (int i = 0; i < 3; i++)
+                System.gc();
+            fullGc = (System.nanoTime() - fullGc) / 3;
+
+            long[] gc = gcTotals();
+            Object[] young = new Object[4096];
+            long end = System.nanoTime() + seconds * 1_000_000_000L;
+            for (long i = 0; System.nanoTime() < end; i++)
+                young[(int) (i & 4095)] = new byte[256];
+            long[] after = gcTotals();
+
+            console.printf("%-8s sessions=%,d parked=%,d  heap %,6.0f B/session  direct %,4.0f B/session  "
+                    + "full gc %,7.1fms  young gc %,d collections %,.1fms%n", offHeap ? "off-heap" : "map",
+                    registry.size(), registry.parked(), heap / (double) players,
+                    registry.parkedBytes() / (double) players, fullGc / 1e6, after[0] - gc[0],
+                    (double) (after[1] - gc[1]));
+            registry.clear(p -> {
+            });
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // the number of collections and the milliseconds spent in them, over all collectors
+    private static long[] gcTotals() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(0, gc.getCollectionCount());
+            totals[1] += Math.max(0, gc.getCollectionTime());
+        }
+        return totals;
+    }
+
+    /**************************************************************************
+     * measure
+     *
+     * Runs a single threaded operation for one second of warmup and then for
+     * the given number of seconds, and prints its results.
+     **************************************************************************/
+    static void measure(String name, int seconds, Operation op) throws Exception {
+        measure(name, 1, seconds, (thread, i) -> op.run(i));
+    }
+
+    /**************************************************************************
+     * measure
+     *
+     * Runs the operation on the given number of threads, first for one second
+     * of warmup and then for the given number of seconds while timing every call.
+     * Prints operations per second, latency percentiles and bytes allocated per
+     * operation over all threads.
+     **************************************************************************/
+    static void measure(String name, int threads, int seconds, ThreadOperation op) throws Exception {
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder allocated = new LongAdder();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        long[] deadlines = new long[2];
+        Throwable[] failure = new Throwable[1];
+        Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers[t] = new Thread(() -> {
+                LatencyHistogram own = new LatencyHistogram();
+                long i = 0;
+                try {
+                    ready.countDown();
+                    go.await();
+                    while (System.nanoTime() < deadlines[0])
+                        op.run(thread, i++);
+
+                    long bytes = THREADS.getCurrentThreadAllocatedBytes();
+                    while (System.nanoTime() < deadlines[1]) {
+                        long begin = System.nanoTime();
+                        op.run(thread, i++);
+                        own.record(System.nanoTime() - begin);
+                    }
+                    allocated.add(THREADS.getCurrentThreadAllocatedBytes() - bytes);
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+                latency.add(own);
+            });
+            workers[t].start();
+        }
+
+        ready.await();
+        long begin = System.nanoTime();
+        deadlines[0] = begin + 1_000_000_000L;
+        deadlines[1] = deadlines[0] + seconds * 1_000_000_000L;
+        go.countDown();
+        for (Thread worker : workers)
+            worker.join();
+        if (failure[0] != null)
+            throw new IllegalStateException(name + " failed", failure[0]);
+
+        long ops = latency.count();
+        console.printf("%-40s threads=%-3d %,14.0f ops/s %,10.0f B/op  %s%n", name, threads, ops / (double) seconds,
+                ops == 0 ? 0.0 : allocated.sum() / (double) ops, latency.summary());
+    }
+
+    static int intArg(String[] args, int index, int fallback) {
+        return args.length > index ? Integer.parseInt(args[index]) : fallback;
+    }
+
+    /**************************************************************************
+     * GlobalLockServer
+     *
+     * Delegates every call to another server while holding one shared monitor,
+     * which is how the GameHandler behaved when all its methods were synchronized.
+     **************************************************************************/
+    static class GlobalLockServer implements PhraseGuessingGameServer {
+        private final PhraseGuessingGameServer delegate;
+
+        GlobalLockServer(PhraseGuessingGameServer delegate) {
+            this.delegate = delegate;
+        }
+
+        public synchronized String startGame(String player, String[] clientMessage) throws RemoteException {
+            return delegate.startGame(player, clientMessage);
+        }
+
+        public synchronized String guessLetter(String player, String letter) throws RemoteException {
+            return delegate.guessLetter(player, letter);
+        }
+
+        public synchronized String guessPhrase(String player, String phrase) throws RemoteException {
+            return delegate.guessPhrase(player, phrase);
+        }
+
+        public synchronized String endGame(String player) throws RemoteException {
+            return delegate.endGame(player);
+        }
+
+        public synchronized String restartGame(String player) throws RemoteException {
+            return delegate.restartGame(player);
+        }
+
+        public synchronized boolean initializePlayer(String player) throws RemoteException {
+            return delegate.initializePlayer(player);
+        }
+
+        public synchronized GuessResult startRound(String player, int numberOfWords, int attemptsPerWord)
+                throws RemoteException {
+            return delegate.startRound(player, numberOfWords, attemptsPerWord);
+        }
+
+        public synchronized GuessResult startRound(String player, int numberOfWords, int attemptsPerWord,
+                Difficulty difficulty) throws RemoteException {
+            return delegate.startRound(player, numberOfWords, attemptsPerWord, difficulty);
+        }
+
+        public synchronized List<Standing> topScores(int count) throws RemoteException {
+            return delegate.topScores(count);
+        }
+
+        public synchronized Standing standing(String player) throws RemoteException {
+            return delegate.standing(player);
+        }
+
+        public synchronized int[] scoresAt(double[] percentiles) throws RemoteException {
+            return delegate.scoresAt(percentiles);
+        }
+
+        public synchronized Hint hint(String player) throws RemoteException {
+            return delegate.hint(player);
+        }
+
+        public synchronized GuessResult revealLetter(String player, char letter) throws RemoteException {
+            return delegate.revealLetter(player, letter);
+        }
+
+        public synchronized GuessResult solvePhrase(String player, String phrase) throws RemoteException {
+            return delegate.solvePhrase(player, phrase);
+        }
+
+        public synchronized List<GuessResult> guessBatch(String player, List<String> guesses) throws RemoteException {
+            return delegate.guessBatch(player, guesses);
+        }
+
+        public synchronized RoomEvent joinRoom(String player, String room, int numberOfWords, int attemptsPerWord,
+                RoomListener listener) throws RemoteException {
+            return delegate.joinRoom(player, room, numberOfWords, attemptsPerWord, listener);
+        }
+
+        public synchronized RoomEvent roomGuess(String player, String room, String guess) throws RemoteException {
+            return delegate.roomGuess(player, room, guess);
+        }
+
+        public synchronized void leaveRoom(String player, String room) throws RemoteException {
+            delegate.leaveRoom(player, room);
+        }
+    }
+}
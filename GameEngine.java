@@ -0,0 +1,522 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * GameEngine.java
+ *
+ * GameEngine plays the game for one shard of the server. It holds the sessions of the players routed to it in its
+ * own SessionRegistry and implements the per-player methods of the remote interface for them, but it is not exported:
+ * the GameHandler is the remote object and hands each call to the engine of the player's shard. Based on the
+ * client's number of words, the engine generates a hidden phrase from the current Dictionary of the
+ * DictionaryManager, reveals letters as
+ * they are guessed right and keeps the number of tries and the total score of every player in its Player object.
+ * Every call only locks the Player it operates on. The GameMetrics, the ScoreStore and the Leaderboard are shared by
+ * all engines, and so is the GameEventLog, if there is one, which gets a GameEvent for every change of a session.
+ * Sessions that are idle for longer than the game.session.park system property (in seconds, 60 by default, 0 to keep
+ * every session on the heap) are parked in an OffHeapSessionStore until the player calls again.
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+public class GameEngine {
+    // the event log and the room events keep a name in at most a short's worth of bytes
+    static final int MAX_NAME_BYTES = 256;
+    private static final long PARK_MILLIS = Long.getLong("game.session.park", 60) * 1000;
+
+    private final SessionRegistry gameplayer;
+    private final DictionaryManager dictionary;
+    private final PhraseGenerator generator = PhraseGenerator.fromSystemProperties();
+    private final PhrasePool pool;
+    private final ScoreStore scores;
+    private final Leaderboard leaderboard;
+    private final GameEventLog events;
+    private final GameMetrics metrics;
+
+    public GameEngine(ScoreStore scores, Leaderboard leaderboard, GameEventLog events, GameMetrics metrics,
+            PhrasePool pool, int maxSessions, long idleMillis, Consumer<Player> onEvict) {
+        this.gameplayer = new SessionRegistry(maxSessions, PARK_MILLIS > 0 ? new OffHeapSessionStore() : null);
+        this.dictionary = DictionaryManager.shared();
+        this.pool = pool;
+        this.scores = scores;
+        this.leaderboard = leaderboard;
+        this.events = events;
+        this.metrics = metrics;
+        gameplayer.startSweeper(idleMillis, p -> {
+            log(GameEvent.Type.END, p, '\0', null);
+            onEvict.accept(p);
+        });
+    }
+
+    public int size() {
+        return gameplayer.size();
+    }
+
+    public long evictions() {
+        return gameplayer.evictions();
+    }
+
+    public int parked() {
+        return gameplayer.parked();
+    }
+
+    public long parkedBytes() {
+        return gameplayer.parkedBytes();
+    }
+
+    /**************************************************************************
+     * startParking
+     *
+     * Starts parking idle sessions off the heap. The executor must be the
+     * thread that runs the calls of this engine.
+     **************************************************************************/
+    public void startParking(Executor executor) {
+        gameplayer.startParking(PARK_MILLIS, executor, dictionary::current);
+    }
+
+    /** Returns the session of the player, or null, without renewing it. Safe to call from any thread. */
+    Player find(String player) {
+        return gameplayer.get(player);
+    }
+
+    /**************************************************************************
+     * touch
+     *
+     * Renews the session of the given player. Returns false if the player has
+     * no session in this engine. Safe to call from any thread.
+     **************************************************************************/
+    public boolean touch(String player) {
+        Player p = gameplayer.get(player);
+        if (p == null)
+            return false;
+        p.touch();
+        return true;
+    }
+
+    public void shutdown() {
+        gameplayer.shutdown();
+    }
+
+    /**************************************************************************
+    * initializePlayer
+    *
+    * This method receives a user requested username and checks to see if it can be used to create a new player.
+    * A new player starts with the total score saved for that username in the ScoreStore, which is also put on
+    * the Leaderboard.
+    * Returns true if the player does not already exist and a new player is created.
+    * Returns false if a player of that name already exists. If this engine already holds its maximum number of
+    * players, a RemoteException tells the client the server is full, and a name of more than MAX_NAME_BYTES bytes
+    * in UTF-8 is refused the same way.
+    *
+    **************************************************************************/
+    public boolean initializePlayer(String player) throws RemoteException {
+        if (player.length() > MAX_NAME_BYTES || player.getBytes(StandardCharsets.UTF_8).length > MAX_NAME_BYTES)
+            throw new RemoteException("A username has at most " + MAX_NAME_BYTES + " bytes.");
+        Player p = new Player(player);
+        p.totalScore = scores.load(player);
+        switch (gameplayer.register(p)) {
+        case ADDED:
+            leaderboard.record(player, p.totalScore);
+            log(GameEvent.Type.JOIN, p, '\0', null);
+            GameLog.info("Player " + player + " joined the server.");
+            return true;
+        case FULL:
+            throw new RemoteException("The server is full. Try again later.");
+        default:
+            return false;
+        }
+    }
+
+    /**************************************************************************
+     * startGame
+     *
+     * This method receives the players username as well as the user input "start i f" to determine
+     * how many words and guesses the user will get, followed by optional difficulty tokens such as
+     * "length=4-8" or "letters". The round itself is started by the helper method round,
+     * and the hidden phrase, number of tries and total score is then returned to the Client module as one
+     * single String.
+     **************************************************************************/
+    public String startGame(String player, String[] clientMessage) throws RemoteException {
+        if (clientMessage == null || clientMessage.length < 3)
+            throw new RemoteException("Usage: start <words> <tries>");
+        int numberOfWords;
+        int attemptsPerWord;
+        Difficulty difficulty;
+        try {
+            numberOfWords = Integer.parseInt(clientMessage[1]);
+            attemptsPerWord = Integer.parseInt(clientMessage[2]);
+        } catch (NumberFormatException e) {
+            throw new RemoteException("Usage: start <words> <tries>, where both are numbers.");
+        }
+        try {
+            difficulty = Difficulty.parse(clientMessage, 3);
+        } catch (IllegalArgumentException e) {
+            throw new RemoteException(e.getMessage());
+        }
+
+        GuessResult result = round(session(player), numberOfWords, attemptsPerWord, difficulty);
+        return result.render(result.getPhrase());
+    }
+
+    /**************************************************************************
+     * guessLetter
+     *
+     * This method receives the player name and the letter they guessed, and applies the guess with the helper
+     * method letter. If the round is over, a String is returned that informs the user they have won or lost and
+     * shows the correct phrase and their current score. If the game is not over, the hidden phrase will be returned
+     * with the number of tries remaining and the total score thus far.
+     **************************************************************************/
+    public String guessLetter(String player, String letter) throws RemoteException {
+        if (letter == null || letter.length() != 1)
+            throw new RemoteException("Guess one letter at a time.");
+        GuessResult result = letter(session(player), letter.charAt(0), true);
+        return result.render(result.getPhrase());
+    }
+
+    /**************************************************************************
+     * gussPhrase
+     *
+     * This method receives the guessed phrase and applies it with the helper method phrase. A victory or losing
+     * message is returned to the Client module along with the total score if the round is over; otherwise the
+     * hidden phrase is returned along with the remaining attempts and total score.
+     **************************************************************************/
+    public String guessPhrase(String player, String phrase) throws RemoteException {
+        GuessResult result = phrase(session(player), phrase, true);
+        return result.render(result.getPhrase());
+    }
+
+    /**************************************************************************
+     * startRound
+     *
+     * Same as startGame, but takes the number of words and attempts per word as
+     * numbers and replies with a GuessResult.
+     **************************************************************************/
+    public GuessResult startRound(String player, int numberOfWords, int attemptsPerWord) throws RemoteException {
+        return round(session(player), numberOfWords, attemptsPerWord, Difficulty.ANY);
+    }
+
+    /**************************************************************************
+     * startRound
+     *
+     * Same, but only draws words that match the difficulty. Throws a
+     * RemoteException if no word of the dictionary does.
+     **************************************************************************/
+    public GuessResult startRound(String player, int numberOfWords, int attemptsPerWord, Difficulty difficulty)
+            throws RemoteException {
+        return round(session(player), numberOfWords, attemptsPerWord, difficulty);
+    }
+
+    /**************************************************************************
+     * revealLetter
+     *
+     * Same as guessLetter, but the reply only carries the positions that the
+     * letter revealed instead of the whole hidden phrase.
+     **************************************************************************/
+    public GuessResult revealLetter(String player, char letter) throws RemoteException {
+        return letter(session(player), letter, false);
+    }
+
+    /**************************************************************************
+     * solvePhrase
+     *
+     * Same as guessPhrase, but the reply does not repeat the hidden phrase.
+     **************************************************************************/
+    public GuessResult solvePhrase(String player, String phrase) throws RemoteException {
+        return phrase(session(player), phrase, false);
+    }
+
+    /**************************************************************************
+     * guessBatch
+     *
+     * Applies several guesses in one call. Every guess of one character is a
+     * letter, as in revealLetter, and any other guess is a phrase, as in
+     * solvePhrase. The guesses are applied in order while holding the player's
+     * lock once, so no other call of the same player can come in between, and
+     * the batch stops at the guess that wins or loses the round. Returns one
+     * result per applied guess; guesses after the end of the round are not
+     * applied and have no result.
+     **************************************************************************/
+    public List<GuessResult> guessBatch(String player, List<String> guesses) throws RemoteException {
+        Player p = session(player);
+        List<GuessResult> results = new ArrayList<>(guesses.size());
+        long waitStart = System.nanoTime();
+        synchronized (p) {
+            metrics.lockWait(System.nanoTime() - waitStart);
+            for (String guess : guesses) {
+                GuessResult result = guess.length() == 1 ? applyLetter(p, guess.charAt(0), false)
+                        : applyPhrase(p, guess, false);
+                results.add(result);
+                if (result.isOver())
+                    break;
+            }
+        }
+        return results;
+    }
+
+    /**************************************************************************
+     * round
+     *
+     * This method starts a new round for the player. The number of words and attempts per word are
+     * multiplied together to determine the total number of guesses. Without a difficulty the phrase is taken
+     * ready from the PhrasePool if there is one; otherwise the method calls on a helper function to create a
+     * random phrase with the desired number of words and wraps it in a PhraseState, which indexes the letters of
+     * the phrase and hides them. Returns the hidden phrase, number of tries and total score.
+     **************************************************************************/
+    private GuessResult round(Player p, int numberOfWords, int attemptsPerWord, Difficulty difficulty)
+            throws RemoteException {
+        // the whole round is drawn from one dictionary, even if a reload swaps it meanwhile
+        Dictionary words = dictionary.current();
+        DictionaryIndex.Selection selection = null;
+        if (difficulty != null && !difficulty.isAny()) {
+            selection = words.index().select(difficulty);
+            if (selection.size() == 0)
+                throw new RemoteException("No words match the difficulty " + difficulty);
+        }
+
+        // take a ready phrase, or generate specified number of randomly chosen words into a single string and
+        // index its letters, outside the player lock
+        PhraseState round = pool == null || selection != null ? null : pool.take(numberOfWords);
+        if (round == null)
+            round = new PhraseState(
+                    generator.generate(words, selection, numberOfWords, p.name, p.phrases.getAndIncrement()));
+        if (GameLog.isDebug())
+            GameLog.debug("The phrase for " + p.name + " is: " + round.phrase());
+
+        long waitStart = System.nanoTime();
+        synchronized (p) {
+            metrics.lockWait(System.nanoTime() - waitStart);
+            p.numberOfTries = numberOfWords * attemptsPerWord;
+            p.round = round;
+            log(GameEvent.Type.START, p, '\0', round.phrase());
+
+            return GuessResult.started(round.hidden(), p.numberOfTries, p.totalScore);
+        }
+    }
+
+    /**************************************************************************
+     * letter
+     *
+     * Reveals the guessed letter in the player's PhraseState, which also tells whether the letter was in the random
+     * phrase. It also keeps track of the number of tries; if the number of tries hit zero because they did not guess
+     * a correct letter, the round is lost. If all the hidden letters have been revealed, the PhraseState is solved
+     * and the round is won. Otherwise the result holds the newly revealed positions, and the whole hidden phrase
+     * too if withMask is set. Once the round is won or lost it is over, and further guesses are refused until the next
+     * round starts.
+     **************************************************************************/
+    private GuessResult letter(Player p, char guess, boolean withMask) throws RemoteException {
+        long waitStart = System.nanoTime();
+        synchronized (p) {
+            metrics.lockWait(System.nanoTime() - waitStart);
+            return applyLetter(p, guess, withMask);
+        }
+    }
+
+    private GuessResult applyLetter(Player p, char guess, boolean withMask) throws RemoteException {
+        PhraseState round = inProgress(p);
+
+        // '*' gives up the round, any other letter is revealed in place
+        if (guess == '*')
+            p.numberOfTries = 0;
+        else if (round.reveal(guess) == 0)
+            p.numberOfTries--;
+        GuessResult result = letterResult(p, round, guess, withMask);
+        log(GameEvent.Type.LETTER, p, guess, null);
+        return result;
+    }
+
+    private GuessResult letterResult(Player p, PhraseState round, char guess, boolean withMask) {
+        // if the client is out of attempts, the round is lost.
+        if (p.numberOfTries == 0) {
+            finishRound(p, false);
+            p.round = PhraseState.EMPTY;
+            return GuessResult.lost(round.phrase(), p.totalScore);
+        }
+        // if the client revealed every letter of the phrase, the round is won.
+        else if (round.isSolved()) {
+            finishRound(p, true);
+            p.round = PhraseState.EMPTY;
+            return GuessResult.won(round.phrase(), p.totalScore);
+        }
+        // Client has neither lost nor won, game continues.
+        else {
+            return GuessResult.progress(p.numberOfTries, p.totalScore, guess, round.lastRevealed(),
+                    withMask ? round.hidden() : null);
+        }
+    }
+
+    /**************************************************************************
+     * phrase
+     *
+     * Compares the guessed phrase with the random phrase using the helper method checkPhrase. If they match
+     * the round is won. If they did not match, this method checks to see if the player has any more tries left,
+     * if not, the round is lost. If they do have more than one attempt the number of tries is decremented by one.
+     **************************************************************************/
+    private GuessResult phrase(Player p, String phrase, boolean withMask) throws RemoteException {
+        long waitStart = System.nanoTime();
+        synchronized (p) {
+            metrics.lockWait(System.nanoTime() - waitStart);
+            return applyPhrase(p, phrase, withMask);
+        }
+    }
+
+    private GuessResult applyPhrase(Player p, String phrase, boolean withMask) throws RemoteException {
+        GuessResult result;
+        inProgress(p);
+
+        // if client guessed correctly
+        if (GameHandler.checkPhrase(phrase, p.round.phrase())) {
+            finishRound(p, true);
+            result = GuessResult.won(p.round.phrase(), p.totalScore);
+            p.round = PhraseState.EMPTY;
+
+            // if client guessed wrong, checks if there are any tries left
+            // so that if client guessed wrong with only one try left
+            // it does the "game over" process
+        } else if (p.numberOfTries > 1) {
+            p.numberOfTries--;
+            result = GuessResult.progress(p.numberOfTries, p.totalScore, '\0', null,
+                    withMask ? p.round.hidden() : null);
+        } else {
+            finishRound(p, false);
+            result = GuessResult.lost(p.round.phrase(), p.totalScore);
+            p.round = PhraseState.EMPTY;
+        }
+        log(GameEvent.Type.PHRASE, p, '\0', phrase);
+        return result;
+    }
+
+    /**************************************************************************
+     * inProgress
+     *
+     * Returns the round of the player, or throws a RemoteException if the
+     * player has no round in progress. Called with the player's lock held.
+     **************************************************************************/
+    private static PhraseState inProgress(Player p) throws RemoteException {
+        if (p.round == PhraseState.EMPTY)
+            throw new RemoteException("No round in progress.");
+        return p.round;
+    }
+
+    /**************************************************************************
+     * finishRound
+     *
+     * Adds one to the player's total score for a won round and takes one off
+     * for a lost round, saves it and puts it on the leaderboard. Called with
+     * the player's lock held.
+     **************************************************************************/
+    private void finishRound(Player p, boolean won) {
+        if (won) {
+            p.totalScore++;
+            metrics.roundWon();
+        } else {
+            p.totalScore--;
+            metrics.roundLost();
+        }
+        scores.save(p.name, p.totalScore);
+        leaderboard.record(p.name, p.totalScore);
+    }
+
+    /**************************************************************************
+     * addPoints
+     *
+     * Adds points the player scored in a shared room to the total score,
+     * saves it and puts it on the leaderboard. Does nothing for a player who
+     * has left.
+     **************************************************************************/
+    void addPoints(String player, int points) {
+        Player p = gameplayer.get(player);
+        if (p == null)
+            return;
+        synchronized (p) {
+            p.totalScore += points;
+            scores.save(p.name, p.totalScore);
+            leaderboard.record(p.name, p.totalScore);
+            log(GameEvent.Type.POINTS, p, '\0', null);
+        }
+    }
+
+    /**************************************************************************
+     * endGame
+     *
+     * This method is to simply end the game, it receives the players name and removes that player. The
+     * player's total score stays in the ScoreStore. It also returns a "Game ended." message back to the Client.
+     **************************************************************************/
+    public String endGame(String player) throws RemoteException {
+        Player p = gameplayer.remove(player);
+        if (p != null) {
+            log(GameEvent.Type.END, p, '\0', null);
+            GameLog.info("Player " + player + " ended game.");
+        }
+        return ("Game ended.\n");
+    }
+
+    /**************************************************************************
+     * hint
+     *
+     * Returns the best next letter for the player's round and the dictionary
+     * words that still fit each word of the phrase. The candidates are kept
+     * in the Player, so the next hint of the round only applies the letters
+     * guessed in between. A hint costs nothing.
+     **************************************************************************/
+    public Hint hint(String player) throws RemoteException {
+        Player p = session(player);
+        HintEngine engine = dictionary.current().hints();
+        long waitStart = System.nanoTime();
+        synchronized (p) {
+            metrics.lockWait(System.nanoTime() - waitStart);
+            p.hint = engine.state(p.hint, inProgress(p));
+            return engine.hint(p.hint);
+        }
+    }
+
+    /**************************************************************************
+     * restartGame
+     *
+     * This method is to simply restart the game, it resets the players score back to zero and sets the
+     * random phrase to an empty string. The method then returns a game restarted message back to the Client.
+     **************************************************************************/
+    public String restartGame(String player) throws RemoteException {
+        Player p = session(player);
+        long waitStart = System.nanoTime();
+        synchronized (p) {
+            metrics.lockWait(System.nanoTime() - waitStart);
+            p.totalScore = 0;
+            p.round = PhraseState.EMPTY;
+            scores.save(p.name, 0);
+            leaderboard.record(p.name, 0);
+            log(GameEvent.Type.RESTART, p, '\0', null);
+        }
+        return ("New Game Requested.\n");
+    }
+
+    /**************************************************************************
+     * log
+     *
+     * Hands the change the player's session just went through to the event
+     * log, with the tries and score it left. Called with the player's lock
+     * held, or for a player that is no longer in the table.
+     **************************************************************************/
+    private void log(GameEvent.Type type, Player p, char letter, String text) {
+        if (events != null)
+            events.append(new GameEvent(type, System.currentTimeMillis(), p.name, letter, text, p.numberOfTries,
+                    p.totalScore));
+    }
+
+    /**************************************************************************
+     * session
+     *
+     * Looks up the session of the given player and renews it. Throws a RemoteException
+     * back to the client if the player never called initializePlayer, already ended
+     * the game or was removed after being idle for too long.
+     **************************************************************************/
+    private Player session(String player) throws RemoteException {
+        Player p = gameplayer.get(player);
+        if (p == null)
+            throw new RemoteException("Unknown player: " + player);
+        p.touch();
+        return p;
+    }
+}
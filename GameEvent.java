@@ -0,0 +1,151 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * GameEvent.java
+ *
+ * GameEvent is one change of a player's session, as the GameEngine made it: a player joined, started a round, guessed
+ * a letter or the phrase, restarted or left. Next to what the player did it carries the tries left and the total
+ * score right after the change, so the events of a player can be read back into the session without playing the game
+ * again, and can be read one by one to see how a score came about. Events are written to the GameEventLog.
+ *
+ * An event is encoded as its sequence number, the time, the type, the player, the letter, the text (the phrase of a
+ * new round or a guessed phrase), the tries and the score.
+ */
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public final class GameEvent {
+
+    public enum Type {
+        /** The player joined the server. Carries the score the player starts with. */
+        JOIN,
+        /** A round started. The text is the phrase. */
+        START,
+        /** The player guessed a letter, or '*' to give up the round. */
+        LETTER,
+        /** The player guessed the phrase. The text is the guess. */
+        PHRASE,
+        /** The player restarted the game, which sets the score to 0. */
+        RESTART,
+        /** The player left the server, or was removed for being idle. */
+        END,
+        /** Events were dropped before this one. Has no player. */
+        GAP,
+        /** The player scored points in a shared room, which the score includes. */
+        POINTS
+    }
+
+    private static final Type[] TYPES = Type.values();
+
+    final Type type;
+    final long time;
+    final String player;
+    final char letter;
+    final String text;
+    final int tries;
+    final int score;
+    long sequence;
+
+    public GameEvent(Type type, long time, String player, char letter, String text, int tries, int score) {
+        this.type = type;
+        this.time = time;
+        this.player = player;
+        this.letter = letter;
+        this.text = text;
+        this.tries = tries;
+        this.score = score;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /** The number of the event in the log, counted from 0. */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getPlayer() {
+        return player;
+    }
+
+    public char getLetter() {
+        return letter;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public int getTries() {
+        return tries;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    /**************************************************************************
+     * encode
+     *
+     * Writes the event into the buffer. Returns false, and leaves the buffer
+     * position where it was, if the event does not fit.
+     **************************************************************************/
+    boolean encode(ByteBuffer out) {
+        byte[] name = player.getBytes(StandardCharsets.UTF_8);
+        byte[] words = text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+        int size = 8 + 8 + 1 + 2 + name.length + 2 + 4 + (words == null ? 0 : words.length) + 4 + 4;
+        if (out.remaining() < size)
+            return false;
+        out.putLong(sequence).putLong(time).put((byte) type.ordinal());
+        out.putShort((short) name.length).put(name);
+        out.putChar(letter);
+        out.putInt(words == null ? -1 : words.length);
+        if (words != null)
+            out.put(words);
+        out.putInt(tries).putInt(score);
+        return true;
+    }
+
+    static GameEvent decode(ByteBuffer in) {
+        long sequence = in.getLong();
+        long time = in.getLong();
+        Type type = TYPES[in.get()];
+        byte[] name = new byte[in.getShort() & 0xffff];
+        in.get(name);
+        char letter = in.getChar();
+        int length = in.getInt();
+        String text = null;
+        if (length >= 0) {
+            byte[] words = new byte[length];
+            in.get(words);
+            text = new String(words, StandardCharsets.UTF_8);
+        }
+        GameEvent event = new GameEvent(type, time, new String(name, StandardCharsets.UTF_8), letter, text,
+                in.getInt(), in.getInt());
+        event.sequence = sequence;
+        return event;
+    }
+
+    /**************************************************************************
+     * toCsv
+     *
+     * One line for offline analysis: sequence, time, type, player, letter,
+     * text, tries and score, with the text quoted.
+     **************************************************************************/
+    public String toCsv() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(sequence).append(',').append(time).append(',').append(type).append(',').append(quote(player))
+                .append(',').append(letter == '\0' ? "" : quote(String.valueOf(letter))).append(',')
+                .append(text == null ? "" : quote(text)).append(',').append(tries).append(',').append(score);
+        return sb.toString();
+    }
+
+    private static String quote(String s) {
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,618 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * GameEventLog.java
+ *
+ * GameEventLog records every GameEvent of the server in a directory of log segments, so the sessions can be rebuilt
+ * after a crash and the games can be looked at afterwards. The GameEngines only put an event in a queue; one writer
+ * thread takes whatever has piled up, writes it into the current segment and forces the whole batch to disk at once,
+ * so a burst of guesses costs one sync. The writer also plays every event it writes into its own copy of the session
+ * table, and every game.events.snapshotEvery events (a million by default) it writes that table out as a snapshot.
+ *
+ * Segments are files of game.events.segmentMB megabytes (64 by default), memory mapped and named after the first
+ * event they hold. A record is its length, a CRC32C of the body and the body, an encoded GameEvent; the first record
+ * that is empty or fails its check ends a segment, which also cuts off a record torn by a crash. A snapshot names the
+ * segment and position of the next event, so recovery reads the newest good snapshot and only the events after it.
+ * A segment is deleted once it ends before the segment of the older of the two snapshots that are kept, so the disk
+ * holds the events since about two snapshots ago; GameLogReplay rebuilds the session table from them or exports
+ * the events.
+ *
+ * When the server starts, the sessions the log still holds belonged to players of the crashed server. The log ends
+ * them with END events, and the GameHandler takes the scores of all players from the log into its ScoreStore. The
+ * queue holds at most game.events.maxPending events (a million by default); events beyond that are counted and
+ * dropped rather than holding up a game, and the log records that it has a gap. From then on the scores of the log
+ * are not taken over by the ScoreStore, since they can be older than the stored ones. The writer only keeps which
+ * players have a session and the last score of every player, not their rounds. Set game.events.sync to false to
+ * leave writing the pages to the OS.
+ *
+ * The log is written when the game.events system property names its directory.
+ */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+public class GameEventLog {
+    private static final int MAGIC = 0x47455654; // "GEVT"
+    private static final int SNAPSHOT_MAGIC = 0x47534e50; // "GSNP"
+    private static final int VERSION = 1;
+    // 2 added the gap flag of the table
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final int HEADER = 16;
+    private static final int MAX_BATCH = 4096;
+    private static final long IDLE_NANOS = 10_000_000L;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final long snapshotEvery;
+    private final int maxPending;
+    private final boolean sync;
+    private final ConcurrentLinkedQueue<GameEvent> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final Map<String, Integer> recoveredScores;
+    private final boolean complete;
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile boolean idle;
+    private volatile long written;
+    private volatile long commits;
+
+    // only used by the writer thread once the log is open
+    private final SessionTable table;
+    private final CRC32C crc = new CRC32C();
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private Path segmentFile;
+    private int commitFrom;
+    private long nextSequence;
+    private long sinceSnapshot;
+    private long droppedLogged;
+
+    public GameEventLog(Path dir) throws IOException {
+        this(dir, Integer.getInteger("game.events.segmentMB", 64) << 20,
+                Long.getLong("game.events.snapshotEvery", 1_000_000),
+                Integer.getInteger("game.events.maxPending", 1 << 20),
+                Boolean.parseBoolean(System.getProperty("game.events.sync", "true")));
+    }
+
+    public GameEventLog(Path dir, int segmentBytes, long snapshotEvery, int maxPending, boolean sync)
+            throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.snapshotEvery = snapshotEvery;
+        this.maxPending = maxPending;
+        this.sync = sync;
+        Files.createDirectories(dir);
+
+        long start = System.nanoTime();
+        Recovery recovery = recover(dir, true, null, false);
+        this.table = recovery.table;
+        this.nextSequence = recovery.nextSequence;
+        this.recoveredScores = Collections.unmodifiableMap(new HashMap<>(table.scores));
+        this.complete = !table.gap;
+        if (recovery.segment != null)
+            openSegment(recovery.segment, recovery.end);
+        else
+            newSegment(nextSequence);
+        if (recovery.events > 0 || !table.sessions.isEmpty())
+            GameLog.info("Recovered " + table.scores.size() + " scores and " + table.sessions.size()
+                    + " sessions from the event log, replaying " + recovery.events + " events in "
+                    + (System.nanoTime() - start) / 1_000_000 + "ms.");
+
+        // the sessions of the last run are over
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Session> e : table.sessions.entrySet())
+            append(new GameEvent(GameEvent.Type.END, now, e.getKey(), '\0', null, e.getValue().tries,
+                    table.score(e.getKey())));
+
+        writer = new Thread(this::write, "event-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**************************************************************************
+     * fromSystemProperties
+     *
+     * Opens the log in the directory named by game.events, or returns null if
+     * the property is not set or the log cannot be opened.
+     **************************************************************************/
+    public static GameEventLog fromSystemProperties() {
+        String dir = System.getProperty("game.events");
+        if (dir == null)
+            return null;
+        try {
+            return new GameEventLog(Paths.get(dir));
+        } catch (IOException e) {
+            GameLog.warn("FILE IO ERROR: " + e.getMessage() + ". Game events will not be logged.");
+            return null;
+        }
+    }
+
+    /**************************************************************************
+     * append
+     *
+     * Queues the event for the writer. Never blocks; when the queue is full
+     * the event is dropped and counted.
+     **************************************************************************/
+    public void append(GameEvent event) {
+        if (queued.incrementAndGet() > maxPending) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        pending.add(event);
+        if (idle)
+            LockSupport.unpark(writer);
+    }
+
+    /** The total score of every player the log knew of when it was opened. */
+    public Map<String, Integer> recoveredScores() {
+        return recoveredScores;
+    }
+
+    /**
+     * Whether the log held every event when it was opened. Once an event was
+     * dropped, the last score the log has of a player may be older than the
+     * one in the ScoreStore.
+     */
+    public boolean complete() {
+        return complete;
+    }
+
+    public long written() {
+        return written;
+    }
+
+    public long commits() {
+        return commits;
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    public int pending() {
+        return queued.get();
+    }
+
+    /**************************************************************************
+     * close
+     *
+     * Writes out the queued events and a last snapshot, and stops the writer.
+     **************************************************************************/
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**************************************************************************
+     * write
+     *
+     * The writer thread. Writes a batch of queued events, forces it to disk,
+     * and takes a snapshot when enough events have been written since the
+     * last one. Sleeps for up to 10ms when there is nothing to write.
+     **************************************************************************/
+    private void write() {
+        while (true) {
+            int n = 0;
+            // events taken from the queue but not yet taken off the count, including one whose write failed
+            int taken = 0;
+            GameEvent event;
+            try {
+                long drops = dropped.sum();
+                if (drops != droppedLogged) {
+                    droppedLogged = drops;
+                    writeEvent(new GameEvent(GameEvent.Type.GAP, System.currentTimeMillis(), "", '\0', null, 0, 0));
+                }
+                while (n < MAX_BATCH && (event = pending.poll()) != null) {
+                    taken++;
+                    writeEvent(event);
+                    n++;
+                }
+                queued.addAndGet(-taken);
+                taken = 0;
+                if (n > 0) {
+                    commit();
+                    written += n;
+                    sinceSnapshot += n;
+                    if (sinceSnapshot >= snapshotEvery)
+                        snapshot();
+                    continue;
+                }
+            } catch (IOException | RuntimeException e) {
+                queued.addAndGet(-taken);
+                GameLog.warn("FILE IO ERROR: " + e.getMessage() + ". Game events may be lost.");
+            }
+            if (!running)
+                break;
+            idle = true;
+            if (pending.isEmpty())
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            idle = false;
+        }
+        try {
+            commit();
+            if (sinceSnapshot > 0)
+                snapshot();
+            channel.close();
+        } catch (IOException e) {
+            GameLog.warn("FILE IO ERROR: " + e.getMessage());
+        }
+    }
+
+    private void writeEvent(GameEvent event) throws IOException {
+        event.sequence = nextSequence;
+        int at = segment.position();
+        segment.position(at + 8);
+        if (!event.encode(segment)) {
+            segment.position(at);
+            commit();
+            newSegment(event.sequence);
+            at = segment.position();
+            segment.position(at + 8);
+            if (!event.encode(segment)) {
+                segment.position(at);
+                dropped.increment();
+                GameLog.warn("Game event of " + event.player + " is larger than a log segment, dropped.");
+                return;
+            }
+        }
+        int length = segment.position() - at - 8;
+        crc.reset();
+        crc.update(segment.duplicate().position(at + 8).limit(at + 8 + length));
+        segment.putInt(at + 4, (int) crc.getValue());
+        segment.putInt(at, length);
+        nextSequence++;
+        table.apply(event);
+    }
+
+    private void commit() {
+        int end = segment.position();
+        if (sync && end > commitFrom)
+            segment.force(commitFrom, end - commitFrom);
+        commitFrom = end;
+        commits++;
+    }
+
+    private void newSegment(long firstSequence) throws IOException {
+        if (channel != null)
+            channel.close();
+        segmentFile = dir.resolve(String.format("events-%020d.log", firstSequence));
+        channel = FileChannel.open(segmentFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        segment.putInt(MAGIC).putInt(VERSION).putLong(firstSequence);
+        segment.force();
+        commitFrom = segment.position();
+    }
+
+    private void openSegment(Path file, int end) throws IOException {
+        segmentFile = file;
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), end));
+        // clear what is left of a torn record, so it cannot be read after the next one
+        for (int i = end; i < Math.min(end + 8, segment.limit()); i++)
+            if (segment.get(i) != 0) {
+                for (int j = end; j < segment.limit(); j++)
+                    segment.put(j, (byte) 0);
+                break;
+            }
+        segment.position(end);
+        commitFrom = end;
+    }
+
+    /**************************************************************************
+     * snapshot
+     *
+     * Writes the session table and the position of the next event to a new
+     * snapshot file, removes all but the previous snapshot and then the
+     * segments that end before the one the previous snapshot starts in,
+     * which recovery no longer reads.
+     **************************************************************************/
+    private void snapshot() throws IOException {
+        Path file = dir.resolve(String.format("snapshot-%020d.snap", nextSequence));
+        Path tmp = dir.resolve(file.getFileName() + ".tmp");
+        try (FileChannel target = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(target), 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(nextSequence);
+            out.writeUTF(segmentFile.getFileName().toString());
+            out.writeInt(segment.position());
+            table.write(out);
+            out.flush();
+            target.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        sinceSnapshot = 0;
+
+        List<Path> snapshots = list(dir, "snapshot-", ".snap");
+        for (int i = 0; i < snapshots.size() - 2; i++)
+            Files.deleteIfExists(snapshots.get(i));
+        if (snapshots.size() < 2)
+            return;
+        String oldest;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(snapshots.get(snapshots.size() - 2)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION)
+                return;
+            in.readLong();
+            oldest = in.readUTF();
+        }
+        for (Path old : list(dir, "events-", ".log"))
+            if (old.getFileName().toString().compareTo(oldest) < 0)
+                Files.deleteIfExists(old);
+    }
+
+    /**************************************************************************
+     * recover
+     *
+     * Rebuilds the session table of a log directory: from the newest snapshot
+     * that can be read, if useSnapshot is set, and the events after it. Every
+     * replayed event is also handed to the consumer, if there is one. Used by
+     * GameLogReplay, with a detailed table.
+     **************************************************************************/
+    static Recovery recover(Path dir, boolean useSnapshot, Consumer<GameEvent> each) throws IOException {
+        return recover(dir, useSnapshot, each, true);
+    }
+
+    private static Recovery recover(Path dir, boolean useSnapshot, Consumer<GameEvent> each, boolean detailed)
+            throws IOException {
+        Recovery r = new Recovery();
+        r.table = new SessionTable(detailed);
+        List<Path> segments = list(dir, "events-", ".log");
+        String from = null;
+        int offset = HEADER;
+
+        if (useSnapshot) {
+            List<Path> snapshots = list(dir, "snapshot-", ".snap");
+            for (int i = snapshots.size() - 1; i >= 0 && from == null; i--) {
+                try (DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(snapshots.get(i)), 1 << 16))) {
+                    if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION)
+                        throw new IOException("not a snapshot of this version");
+                    long next = in.readLong();
+                    String segment = in.readUTF();
+                    int position = in.readInt();
+                    if (!Files.exists(dir.resolve(segment)))
+                        throw new IOException("its segment " + segment + " is missing");
+                    r.table = SessionTable.read(in, detailed);
+                    r.nextSequence = next;
+                    r.snapshot = snapshots.get(i);
+                    from = segment;
+                    offset = position;
+                } catch (IOException e) {
+                    GameLog.warn("Skipping the snapshot " + snapshots.get(i) + ": " + e.getMessage());
+                }
+            }
+        }
+
+        for (Path file : segments) {
+            String name = file.getFileName().toString();
+            if (from != null && name.compareTo(from) < 0)
+                continue;
+            int start = name.equals(from) ? offset : HEADER;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.limit() < HEADER || buffer.getInt(0) != MAGIC)
+                    continue;
+                r.segment = file;
+                r.end = replay(buffer, start, r, each);
+            }
+        }
+        return r;
+    }
+
+    private static int replay(ByteBuffer buffer, int at, Recovery r, Consumer<GameEvent> each) {
+        CRC32C crc = new CRC32C();
+        while (at + 8 <= buffer.limit()) {
+            int length = buffer.getInt(at);
+            if (length <= 0 || length > buffer.limit() - at - 8)
+                break;
+            ByteBuffer body = buffer.duplicate().position(at + 8).limit(at + 8 + length);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(at + 4))
+                break;
+            GameEvent event = GameEvent.decode(body);
+            r.table.apply(event);
+            r.nextSequence = event.sequence + 1;
+            r.events++;
+            if (each != null)
+                each.accept(event);
+            at += 8 + length;
+        }
+        return at;
+    }
+
+    private static List<Path> list(Path dir, String prefix, String suffix) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "*" + suffix)) {
+            for (Path p : stream)
+                files.add(p);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    /**************************************************************************
+     * Recovery
+     *
+     * What recover found: the table, the next sequence number, how many events
+     * it replayed, the snapshot it started from and where the last segment
+     * ends.
+     **************************************************************************/
+    static final class Recovery {
+        SessionTable table;
+        long nextSequence;
+        long events;
+        Path snapshot;
+        Path segment;
+        int end;
+    }
+
+    /**************************************************************************
+     * SessionTable
+     *
+     * The sessions as the events left them, and the last score of every
+     * player, including those who have left. A table that is not detailed,
+     * like the one of the writer, only keeps which players have a session,
+     * so it does not hold a second copy of every phrase on the heap; the
+     * score of a session is then the one in scores. gap is set once the log
+     * has dropped an event.
+     **************************************************************************/
+    static final class SessionTable {
+        private static final Session ANY = new Session();
+
+        final HashMap<String, Session> sessions = new HashMap<>();
+        final HashMap<String, Integer> scores = new HashMap<>();
+        final boolean detailed;
+        boolean gap;
+
+        SessionTable(boolean detailed) {
+            this.detailed = detailed;
+        }
+
+        void apply(GameEvent e) {
+            if (e.type == GameEvent.Type.GAP) {
+                gap = true;
+                return;
+            }
+            if (e.type == GameEvent.Type.END) {
+                sessions.remove(e.player);
+                scores.put(e.player, e.score);
+                return;
+            }
+            scores.put(e.player, e.score);
+            if (!detailed) {
+                sessions.putIfAbsent(e.player, ANY);
+                return;
+            }
+            Session s = sessions.computeIfAbsent(e.player, name -> new Session());
+            switch (e.type) {
+            case START:
+                s.phrase = e.text;
+                s.guessed[0] = s.guessed[1] = 0;
+                break;
+            case LETTER:
+                if (e.letter < 128)
+                    s.guessed[e.letter >>> 6] |= 1L << e.letter;
+                break;
+            case RESTART:
+                s.phrase = null;
+                break;
+            default:
+                break;
+            }
+            s.tries = e.tries;
+            s.score = e.score;
+        }
+
+        int score(String player) {
+            Session s = sessions.get(player);
+            return s == null || s == ANY ? scores.getOrDefault(player, 0) : s.score;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeBoolean(gap);
+            out.writeInt(sessions.size());
+            for (Map.Entry<String, Session> e : sessions.entrySet()) {
+                Session s = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeInt(score(e.getKey()));
+                out.writeInt(s.tries);
+                out.writeBoolean(s.phrase != null);
+                if (s.phrase != null) {
+                    byte[] phrase = s.phrase.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(phrase.length);
+                    out.write(phrase);
+                }
+                out.writeLong(s.guessed[0]);
+                out.writeLong(s.guessed[1]);
+            }
+            out.writeInt(scores.size());
+            for (Map.Entry<String, Integer> e : scores.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue());
+            }
+        }
+
+        static SessionTable read(DataInputStream in, boolean detailed) throws IOException {
+            SessionTable table = new SessionTable(detailed);
+            table.gap = in.readBoolean();
+            for (int n = in.readInt(); n > 0; n--) {
+                String name = in.readUTF();
+                Session s = new Session();
+                s.score = in.readInt();
+                s.tries = in.readInt();
+                if (in.readBoolean()) {
+                    byte[] phrase = new byte[in.readInt()];
+                    in.readFully(phrase);
+                    s.phrase = new String(phrase, StandardCharsets.UTF_8);
+                }
+                s.guessed[0] = in.readLong();
+                s.guessed[1] = in.readLong();
+                table.sessions.put(name, detailed ? s : ANY);
+            }
+            for (int n = in.readInt(); n > 0; n--)
+                table.scores.put(in.readUTF(), in.readInt());
+            return table;
+        }
+    }
+
+    /**************************************************************************
+     * Session
+     *
+     * One session of the table: the score, the tries left, the phrase of the
+     * round and the letters guessed in it.
+     **************************************************************************/
+    static final class Session {
+        int score;
+        int tries;
+        String phrase;
+        final long[] guessed = new long[2];
+
+        /** Returns the phrase as the player saw it, or null without a round. */
+        String hidden() {
+            if (phrase == null)
+                return null;
+            char[] hidden = phrase.toCharArray();
+            for (int i = 0; i < hidden.length; i++) {
+                char c = hidden[i];
+                if (c != ' ' && (c >= 128 || (guessed[c >>> 6] & (1L << c)) == 0))
+                    hidden[i] = '-';
+            }
+            return new String(hidden);
+        }
+    }
+}
@@ -4,210 +4,493 @@
  * GameHandler.java
  *
  * This module implements the remote interface to interpret user input from the client module for the phrase guessing game. This module also
- * has several helper methods to aid the remotely called methods. The server loads a list of words from a text file
- * words.txt, and based on clients number of words chosen, it generates a hidden phrase to be guessed by the user.
- * As the user makes guesses, letters will be revealed, if they were guessed right. The user can keep guessing
- * until all the letters are revealed or they run out of tries. The number of tries are displayed to the user
- * beside the hidden phrase, as well as the total score which keeps track of how many games have been won. If
- * the user loses, however, the total score is decremented by one. The client can also guess the entire phrase,
- * if they guess correctly they win that round, but it has to match entirely or the number of tries decrements by one.
- * Fields such as, number of tries, random phrase/hidden phrase, and total score are all stored in a player class,
- * so that these fields can remain separate and unaffected by other players.
+ * has several helper methods to aid the remotely called methods. The game itself is played by GameEngines: the
+ * players are split over a number of shards, set with the game.shards system property (the number of cores by
+ * default), and a player always belongs to the shard picked by the hash of the username. Every shard has its own
+ * GameEngine, with its own table of players, and its own single thread that runs the calls of those players one
+ * after the other. GameHandler is the one remote object that clients see; it hands each call to the thread of the
+ * player's shard and waits for the reply, so players of different shards never touch the same session table or
+ * lock. The maximum number of players (game.session.max) is divided evenly over the shards, and sessions that go
+ * quiet are parked off the heap by their shard. Unless the phrases are
+ * seeded, the shards share one PhrasePool that keeps phrases ready for new rounds. The words come from the
+ * DictionaryManager, which can swap in a new dictionary while the server runs. Players that stay idle
+ * for longer than the game.session.idle system property (in seconds, 600 by default) are removed; that is also how
+ * the sessions of clients that went away without ending their game are cleaned up, whatever front end they used,
+ * since players of the NIO front end or of the same JVM never hold an RMI reference. Shared rooms do
+ * not belong to a shard: their state is lock free, so room calls run on the caller's thread against the one
+ * RoomManager, which pushes every reveal to the members of the room; the points of a room are added to the total
+ * score on the player's shard. The same goes for the Leaderboard, which the engines update whenever a total score
+ * changes. With game.events set, every change of a session is also written to a
+ * GameEventLog, from which the scores are recovered when the server starts. Before a call is handed to a shard the
+ * AdmissionControl checks the player's call rate, the number of calls in progress and the size of the round, and
+ * refuses the call at once with a ServerBusyException rather than let it queue. Every remote call
+ * is measured in a GameMetrics, including the time it waited for its shard, and messages go to the asynchronous
+ * GameLog; the phrases of the players are only logged at DEBUG level.
  *
  */
 
-import java.io.InputStream;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Random;
-import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 @SuppressWarnings("serial")
 public class GameHandler extends UnicastRemoteObject implements PhraseGuessingGameServer {
 
-    public class Player {
-        private String randomPhrase;
-        private String hiddenPhrase;
-        private int numberOfTries;
-        private int totalScore;
-
-        public Player(String player) {
-            this.randomPhrase = "";
-            this.hiddenPhrase = "";
-            this.numberOfTries = 0;
-            this.totalScore = 0;
-        }
-    }
+    private static final long IDLE_MILLIS = Long.getLong("game.session.idle", 600) * 1000;
+    private static final int MAX_TOP = 1000;
 
-    private Map<String, Player> gameplayer = new HashMap<>();
-    private List<String> words;
+    private final GameEngine[] shards;
+    private final ExecutorService[] executors;
+    private final PhraseGenerator generator = PhraseGenerator.fromSystemProperties();
+    private final RoomManager rooms = new RoomManager(DictionaryManager.shared(), generator, this::roomPoints);
+    private final PhrasePool pool;
+    private final ScoreStore scores;
+    private final Leaderboard leaderboard = new Leaderboard();
+    private final GameEventLog events = GameEventLog.fromSystemProperties();
+    private final GameMetrics metrics = new GameMetrics();
+    private final AdmissionControl admission = AdmissionControl.fromSystemProperties();
 
     public GameHandler() throws RemoteException {
-        super();
-        words = loadWords();
+        this(ScoreStore.fromSystemProperties());
     }
 
-    /**************************************************************************
-    * initializePlayer
-    *
-    * This method receives a user requested username and checks to see if it can be used to create a new player.
-    * Returns true if the player does not already exist and a new player is created.
-    * Returns false if a player of that name already exists.
-    *
-    **************************************************************************/
-    @Override
-    public synchronized boolean initializePlayer(String player) throws RemoteException {
-        if (!gameplayer.containsKey(player)) {
-            gameplayer.put(player, new Player(player));
-            System.out.println("Player " + player + " joined the server.");
-            return true;
-        } else
-            return false;
+    public GameHandler(ScoreStore scores) throws RemoteException {
+        this(scores, Integer.getInteger("game.shards", Runtime.getRuntime().availableProcessors()));
+    }
+
+    public GameHandler(ScoreStore scores, int shardCount) throws RemoteException {
+        super();
+        this.scores = scores;
+        this.shards = new GameEngine[shardCount];
+        this.executors = new ExecutorService[shardCount];
+        // build the difficulty index and the hint engine now rather than on a shard thread in the first call that
+        // asks for one; a reloaded dictionary gets both from the DictionaryManager before it is swapped in
+        Dictionary.shared().index();
+        Dictionary.shared().hints();
+        // pooled phrases are drawn at random, which a seeded generator must not do
+        this.pool = generator.isSeeded() || Integer.getInteger("game.pool.size", 32) <= 0 ? null
+                : new PhrasePool(DictionaryManager.shared());
+        int maxSessions = (Integer.getInteger("game.session.max", 100000) + shardCount - 1) / shardCount;
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new GameEngine(scores, leaderboard, events, metrics, pool, maxSessions, IDLE_MILLIS, p -> {
+                GameLog.info("Player " + p.name + " was idle and removed.");
+                rooms.leaveAll(p.name);
+            });
+            String name = "game-shard-" + i;
+            executors[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            });
+            shards[i].startParking(executors[i]);
+        }
+        metrics.gauge("liveSessions", this::liveSessions).gauge("evictedSessions", this::evictedSessions)
+                .gauge("parkedSessions", this::parkedSessions).gauge("parkedSessionBytes", this::parkedBytes)
+                .gauge("shards", () -> shards.length).gauge("rooms", rooms::size).gauge("roomMembers", rooms::members)
+                .gauge("roomEventsDelivered", rooms::delivered).gauge("roomMembersDropped", rooms::dropped)
+                .gauge("roomResyncs", rooms::resyncs).gauge("leaderboardPlayers", leaderboard::players)
+                .gauge("dictionaryWords", () -> DictionaryManager.shared().current().size())
+                .gauge("dictionaryReloads", DictionaryManager.shared()::reloads)
+                .gauge("dictionaryReloadFailures", DictionaryManager.shared()::failedReloads)
+                .gauge("dictionaryReloadMillis", DictionaryManager.shared()::lastReloadMillis)
+                .gauge("admissionRateLimited", admission::rateLimited)
+                .gauge("admissionOverloaded", admission::overloaded).gauge("admissionCalls", admission::calls)
+                .gauge("droppedLogMessages", GameLog::dropped);
+        if (events != null) {
+            // a complete log saw every score change, also those a crash kept from the ScoreStore
+            if (events.complete())
+                events.recoveredScores().forEach((player, score) -> {
+                    if (scores.load(player) != score)
+                        scores.save(player, score);
+                });
+            else
+                GameLog.warn("The event log has dropped events, keeping the scores of the score store.");
+            metrics.gauge("eventsWritten", events::written).gauge("eventsDropped", events::dropped)
+                    .gauge("eventsPending", events::pending).gauge("eventCommits", events::commits);
+        }
+        // the leaderboard ranks every player the server has seen, also in earlier runs
+        scores.forEach(leaderboard::record);
+        if (pool != null)
+            metrics.gauge("phrasePoolHits", pool::hits).gauge("phrasePoolMisses", pool::misses)
+                    .gauge("phrasePoolReady", pool::ready)
+                    .gauge("phrasePoolRefillLagP99Micros", () -> pool.refillLag().percentile(99) / 1000);
     }
 
     /**************************************************************************
-     * startGame
+     * shutdown
      *
-     * This method receives the players username as well as the user input "start i f" to determine
-     * how many words and guesses the user will get. The number of words and attempts are then multiplied
-     * together to determine the total number of guesses. The method than calls on two helper functions,
-     * one to create a random phrase with the desired number of words and one that hides the letters of
-     * the phrase. The hidden phrase, number of tries and total score is then returned to the Client
-     * module as one single String.
+     * Lets the shards finish the calls they have queued and writes out the
+     * scores that are still pending. Called when the server stops.
      **************************************************************************/
-    @Override
-    public synchronized String startGame(String player, String[] clientMessage) throws RemoteException {
+    public void shutdown() {
+        for (ExecutorService executor : executors)
+            executor.shutdown();
+        try {
+            for (ExecutorService executor : executors)
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (GameEngine shard : shards)
+            shard.shutdown();
+        rooms.shutdown();
+        if (pool != null)
+            pool.shutdown();
+        if (events != null)
+            events.close();
+        scores.close();
+    }
+
+    public GameMetrics metrics() {
+        return metrics;
+    }
+
+    public int liveSessions() {
+        int live = 0;
+        for (GameEngine shard : shards)
+            live += shard.size();
+        return live;
+    }
 
-        int numberOfWords = Integer.parseInt(clientMessage[1]);
-        int attemptsPerWord = Integer.parseInt(clientMessage[2]);
-        int numofTries = gameplayer.get(player).numberOfTries = numberOfWords * attemptsPerWord;
+    public long evictedSessions() {
+        long evicted = 0;
+        for (GameEngine shard : shards)
+            evicted += shard.evictions();
+        return evicted;
+    }
 
-        // generate specified number of randomly chosen words into a single string
-        gameplayer.get(player).randomPhrase = getRandomWords(words, numberOfWords);
-        System.out.println("The phrase for " + player + " is: " + gameplayer.get(player).randomPhrase + '\n');
+    public int parkedSessions() {
+        int parked = 0;
+        for (GameEngine shard : shards)
+            parked += shard.parked();
+        return parked;
+    }
 
-        // generates a string of dashes corresponding to the randomPhrase
-        String hidden = gameplayer.get(player).hiddenPhrase = hideWords(gameplayer.get(player).randomPhrase);
+    public long parkedBytes() {
+        long bytes = 0;
+        for (GameEngine shard : shards)
+            bytes += shard.parkedBytes();
+        return bytes;
+    }
 
-        int score = gameplayer.get(player).totalScore;
-        return (hidden + " Tries: " + numofTries + " Total Score: " + score + '\n');
+    public int shards() {
+        return shards.length;
     }
 
     /**************************************************************************
-     * guessLetter
-     *
-     * This method receives the player name and the letter they guessed. It uses the helper method checkLetter
-     * to determine whether the guessed letter was in the random phrase. It also keeps track of the number of tries;
-     * if the number of tries hit zero because they did not guess a correct letter, a String is returned that informs
-     * the user they have lost and shows the correct phrase and their current score. If all the hidden letters have
-     * been revealed, then the hidden phrase will match the random phrase and a victory message will be returned to
-     * the Client module including their score. If the game is not over, the hidden phrase will be returned
-     * with the number of tries remaining and the total score thus far.
+     * The remote methods. Each one runs on the thread of the player's shard,
+     * see call; what they do is described in GameEngine.
      **************************************************************************/
     @Override
-    public synchronized String guessLetter(String player, String letter) throws RemoteException {
-        int score;
-        Pair guess = checkLetter(letter, gameplayer.get(player).randomPhrase, gameplayer.get(player).hiddenPhrase,
-                gameplayer.get(player).numberOfTries);
+    public boolean initializePlayer(String player) throws RemoteException {
+        return call(GameMetrics.Call.INITIALIZE_PLAYER, player, e -> e.initializePlayer(player));
+    }
 
-        gameplayer.get(player).hiddenPhrase = guess.getKey();
-        int tries = gameplayer.get(player).numberOfTries = guess.getValue();
+    @Override
+    public String startGame(String player, String[] clientMessage) throws RemoteException {
+        admission.checkRound(clientMessage);
+        return call(GameMetrics.Call.START_GAME, player, e -> e.startGame(player, clientMessage));
+    }
 
-        // if the client is out of attempts, the round is lost.
-        if (tries == 0) {
-            gameplayer.get(player).totalScore--;
-            score = gameplayer.get(player).totalScore;
+    @Override
+    public String guessLetter(String player, String letter) throws RemoteException {
+        admission.checkGuess(letter);
+        return call(GameMetrics.Call.GUESS_LETTER, player, e -> e.guessLetter(player, letter));
+    }
 
-            return ("Lost this round! The phrase was: " + gameplayer.get(player).randomPhrase + " Total Score: " + score
-                    + '\n');
+    @Override
+    public String guessPhrase(String player, String phrase) throws RemoteException {
+        admission.checkGuess(phrase);
+        return call(GameMetrics.Call.GUESS_PHRASE, player, e -> e.guessPhrase(player, phrase));
+    }
+
+    @Override
+    public String endGame(String player) throws RemoteException {
+        String reply = call(GameMetrics.Call.END_GAME, player, e -> e.endGame(player));
+        rooms.leaveAll(player);
+        return reply;
+    }
+
+    @Override
+    public String restartGame(String player) throws RemoteException {
+        return call(GameMetrics.Call.RESTART_GAME, player, e -> e.restartGame(player));
+    }
+
+    @Override
+    public GuessResult startRound(String player, int numberOfWords, int attemptsPerWord) throws RemoteException {
+        admission.checkRound(numberOfWords, attemptsPerWord);
+        return call(GameMetrics.Call.START_ROUND, player, e -> e.startRound(player, numberOfWords, attemptsPerWord));
+    }
+
+    @Override
+    public GuessResult startRound(String player, int numberOfWords, int attemptsPerWord, Difficulty difficulty)
+            throws RemoteException {
+        admission.checkRound(numberOfWords, attemptsPerWord);
+        return call(GameMetrics.Call.START_ROUND, player,
+                e -> e.startRound(player, numberOfWords, attemptsPerWord, difficulty));
+    }
+
+    @Override
+    public Hint hint(String player) throws RemoteException {
+        return call(GameMetrics.Call.HINT, player, e -> e.hint(player));
+    }
+
+    @Override
+    public GuessResult revealLetter(String player, char letter) throws RemoteException {
+        return call(GameMetrics.Call.REVEAL_LETTER, player, e -> e.revealLetter(player, letter));
+    }
+
+    @Override
+    public GuessResult solvePhrase(String player, String phrase) throws RemoteException {
+        admission.checkGuess(phrase);
+        return call(GameMetrics.Call.SOLVE_PHRASE, player, e -> e.solvePhrase(player, phrase));
+    }
+
+    @Override
+    public List<GuessResult> guessBatch(String player, List<String> guesses) throws RemoteException {
+        int size = guesses == null ? 0 : guesses.size();
+        admission.checkBatch(size);
+        for (int i = 0; i < size; i++)
+            admission.checkGuess(guesses.get(i));
+        return call(GameMetrics.Call.GUESS_BATCH, player, Math.max(1, size), e -> e.guessBatch(player, guesses));
+    }
+
+    /**************************************************************************
+     * joinRoom
+     *
+     * Adds the player to a shared room, creating it with the given number of
+     * words and tries if it does not exist yet. Events of the room are pushed
+     * to the listener, which may be null for a player that only wants the
+     * replies to its own guesses. Returns the round in progress.
+     **************************************************************************/
+    @Override
+    public RoomEvent joinRoom(String player, String room, int numberOfWords, int attemptsPerWord,
+            RoomListener listener) throws RemoteException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            admission.checkRound(numberOfWords, attemptsPerWord);
+            admit(player, 1);
+            playing(player);
+            RoomEvent event = rooms.join(player, room, numberOfWords, attemptsPerWord, listener);
+            failed = false;
+            return event;
+        } finally {
+            metrics.record(GameMetrics.Call.JOIN_ROOM, System.nanoTime() - start, failed);
         }
-        // if the client completed the phrase, the round is won.
-        else if (gameplayer.get(player).hiddenPhrase.equals(gameplayer.get(player).randomPhrase)) {
-            gameplayer.get(player).totalScore++;
-            score = gameplayer.get(player).totalScore;
+    }
 
-            return ("Winner! The phrase was: " + gameplayer.get(player).randomPhrase + " Total Score: " + score + '\n');
+    /**************************************************************************
+     * roomGuess
+     *
+     * Guesses a letter, if the guess is one character long, or the whole phrase
+     * in a room the player has joined.
+     **************************************************************************/
+    @Override
+    public RoomEvent roomGuess(String player, String room, String guess) throws RemoteException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            admission.checkGuess(guess);
+            admit(player, 1);
+            playing(player);
+            RoomEvent event = rooms.guess(player, room, guess);
+            if (event == null)
+                throw new RemoteException(player + " has not joined room " + room);
+            failed = false;
+            return event;
+        } finally {
+            metrics.record(GameMetrics.Call.ROOM_GUESS, System.nanoTime() - start, failed);
         }
-        // Client has neither lost nor won, game continues.
-        else {
-            score = gameplayer.get(player).totalScore;
-            return (gameplayer.get(player).hiddenPhrase + " Tries: " + tries + " Total Score: " + score + '\n');
+    }
+
+    @Override
+    public void leaveRoom(String player, String room) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            rooms.leave(player, room);
+        } finally {
+            metrics.record(GameMetrics.Call.LEAVE_ROOM, System.nanoTime() - start, false);
         }
     }
 
     /**************************************************************************
-     * gussPhrase
+     * topScores
      *
-     * This method receives the guessed phrase and relies on the helper method checkPhrase, which compares the users guess with the
-     * random phrase, if they match then the client wins and a victory message is returned to the Client
-     * module along with the total score. If they did not match, this method checks to see if the player
-     * has any more tries left, if not, a losing message is returned. If they do have more than one attempt
-     * the number of tries is decremented by one and the hidden phrase is returned along with the remaining attempts
-     * and total score.
+     * Returns the standings of the best players on the leaderboard, at most
+     * count of them, best first. The leaderboard takes no lock, so the
+     * leaderboard calls run on the caller's thread, but they count against
+     * the calls in progress of the AdmissionControl like the others.
      **************************************************************************/
     @Override
-    public synchronized String guessPhrase(String player, String phrase) throws RemoteException {
+    public List<Standing> topScores(int count) throws RemoteException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            if (count < 1 || count > MAX_TOP)
+                throw new RemoteException("Ask for 1 to " + MAX_TOP + " top scores.");
+            admission.enter();
+            try {
+                List<Standing> top = leaderboard.top(count);
+                failed = false;
+                return top;
+            } finally {
+                admission.exit();
+            }
+        } finally {
+            metrics.record(GameMetrics.Call.TOP_SCORES, System.nanoTime() - start, failed);
+        }
+    }
 
-        String result;
-        int score;
+    /**************************************************************************
+     * standing
+     *
+     * Returns the rank and percentile of a player, or null if the player has
+     * never played on this server.
+     **************************************************************************/
+    @Override
+    public Standing standing(String player) throws RemoteException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            admit(player, 1);
+            admission.enter();
+            try {
+                Standing standing = leaderboard.standing(player);
+                failed = false;
+                return standing;
+            } finally {
+                admission.exit();
+            }
+        } finally {
+            metrics.record(GameMetrics.Call.STANDING, System.nanoTime() - start, failed);
+        }
+    }
 
-        // if client guessed correctly
-        if (checkPhrase(phrase, gameplayer.get(player).randomPhrase)) {
-            gameplayer.get(player).totalScore++;
-            score = gameplayer.get(player).totalScore;
+    /**************************************************************************
+     * scoresAt
+     *
+     * Returns, for every percentile asked for, the score that this percent of
+     * the players reach or stay below.
+     **************************************************************************/
+    @Override
+    public int[] scoresAt(double[] percentiles) throws RemoteException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            admission.checkPercentiles(percentiles.length);
+            admission.enter();
+            try {
+                int[] scores = new int[percentiles.length];
+                for (int i = 0; i < percentiles.length; i++)
+                    scores[i] = leaderboard.scoreAt(percentiles[i]);
+                failed = false;
+                return scores;
+            } finally {
+                admission.exit();
+            }
+        } finally {
+            metrics.record(GameMetrics.Call.SCORES_AT, System.nanoTime() - start, failed);
+        }
+    }
 
-            result = "Winner! The phrase was: " + gameplayer.get(player).randomPhrase + " Total Score: " + score + '\n';
+    private void admit(String player, int cost) throws ServerBusyException {
+        admission.admit(shards[shard(player)].find(player), player, cost);
+    }
 
-            gameplayer.get(player).randomPhrase = "";
+    /**************************************************************************
+     * roomPoints
+     *
+     * Adds the points a player scored in a room to the player's total score.
+     * Room guesses run on the caller's thread, so the score is changed on the
+     * player's shard like every other change of it; the guess does not wait.
+     **************************************************************************/
+    private void roomPoints(String player, int points) {
+        int shard = shard(player);
+        try {
+            executors[shard].execute(() -> shards[shard].addPoints(player, points));
+        } catch (RejectedExecutionException e) {
+            // the server is shutting down
+        }
+    }
 
-            // if client guessed wrong, checks if there are any tries left
-            // so that if client guessed wrong with only one try left
-            // it does the "game over" process
-        } else {
-            if (gameplayer.get(player).numberOfTries > 1) {
-                gameplayer.get(player).numberOfTries--;
-                result = gameplayer.get(player).hiddenPhrase + " Tries: " + gameplayer.get(player).numberOfTries
-                        + " Total Score: " + gameplayer.get(player).totalScore + '\n';
-            } else {
-                gameplayer.get(player).totalScore--;
+    private void playing(String player) throws RemoteException {
+        if (!shards[shard(player)].touch(player))
+            throw new RemoteException("Unknown player: " + player);
+    }
 
-                result = "Lost this round! The phrase was: " + gameplayer.get(player).randomPhrase + " Total Score: "
-                        + gameplayer.get(player).totalScore + '\n';
-                gameplayer.get(player).randomPhrase = "";
-            }
-        }
-        return result;
+    /** One call of a remote method on the engine of a shard. */
+    private interface ShardCall<T> {
+        T run(GameEngine engine) throws RemoteException;
     }
 
     /**************************************************************************
-     * endGame
+     * call
      *
-     * This method is to simply end the game, it receives the players name and removes that player. It also
-     * returns a "Game ended." message back to the Client.
+     * Runs the given call on the thread of the player's shard, waits for it and
+     * records it in the metrics. An exception thrown by the engine is thrown
+     * again here, so the client receives it as if the call had run on this
+     * thread. The call costs one token of the player's bucket, and is refused
+     * with a ServerBusyException before it is queued if the AdmissionControl
+     * does not take it.
      **************************************************************************/
-    @Override
-    public synchronized String endGame(String player) throws RemoteException {
-        System.out.println("Player " + player + " ended game.\n");
-        gameplayer.remove(player);
-        return ("Game ended.\n");
+    private <T> T call(GameMetrics.Call call, String player, ShardCall<T> task) throws RemoteException {
+        return call(call, player, 1, task);
     }
 
     /**************************************************************************
-     * restartGame
+     * call
      *
-     * This method is to simply restart the game, it resets the players score back to zero and sets the
-     * random phrase to an empty string. The method then returns a game restarted message back to the Client.
+     * Same as above, for a call that costs the given number of tokens.
      **************************************************************************/
-    @Override
-    public synchronized String restartGame(String player) throws RemoteException {
-        gameplayer.get(player).totalScore = 0;
-        gameplayer.get(player).randomPhrase = "";
+    private <T> T call(GameMetrics.Call call, String player, int cost, ShardCall<T> task) throws RemoteException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            admit(player, cost);
+            admission.enter();
+            try {
+                int shard = shard(player);
+                T result = executors[shard].submit(() -> task.run(shards[shard])).get();
+                failed = false;
+                return result;
+            } finally {
+                admission.exit();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RemoteException)
+                throw (RemoteException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RemoteException(cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for the game server.");
+        } finally {
+            metrics.record(call, System.nanoTime() - start, failed);
+        }
+    }
 
-        return ("New Game Requested.\n");
+    /**************************************************************************
+     * shard
+     *
+     * Returns the shard of the given player, from the hash of the username.
+     * The bits of String.hashCode are spread first, since names that only
+     * differ in their last character would otherwise land on neighbouring
+     * shards in order.
+     **************************************************************************/
+    int shard(String player) {
+        int h = player.hashCode() * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), shards.length);
     }
 
     /**************************************************************************
@@ -220,7 +503,7 @@ public class GameHandler extends UnicastRemoteObject implements PhraseGuessingGa
      * the returned string is empty); and possibly decremented number of tries, if
      * the client guessed wrong.
      **************************************************************************/
-    public synchronized static Pair checkLetter(String clientGuess, String guessPhrase, String hiddenPhrase,
+    public static Pair checkLetter(String clientGuess, String guessPhrase, String hiddenPhrase,
             int tries) {
         StringBuilder sb = new StringBuilder();
         boolean correct = false;
@@ -280,51 +563,15 @@ public class GameHandler extends UnicastRemoteObject implements PhraseGuessingGa
         return sb.toString();
     }
 
-    /**************************************************************************
-     * loadWords
-     *
-     * Opens the words.txt file and adds each word from the file to the
-     * list (ArrayList) of words. The words.txt is a file of strings delimited by
-     * newline, so the delimiter for splitting the file is the newline character.
-     * Returns the loaded word list.
-     **************************************************************************/
-    public static List<String> loadWords() {
-        List<String> wordList = new ArrayList<String>();
-
-        try {
-            InputStream file = Server.class.getResourceAsStream("words.txt");
-            Scanner sc = new Scanner(file);
-
-            while (sc.hasNextLine()) {
-                String line = sc.nextLine();
-                String word = line.split("\n")[0];
-                wordList.add(word);
-            }
-            sc.close();
-
-        } catch (NullPointerException e) {
-            System.out.println("FILE IO ERROR: " + e.getMessage());
-        }
-
-        return wordList;
-    }
-
     /**************************************************************************
      * getRandomWords
      *
-     * Takes the word list, and the number of words that the client
-     * specified via input. The loop invokes the Random method for n number of words
-     * and each word is appended to the string with whitespace inbetween. Returns
+     * Takes the dictionary, and the number of words that the client
+     * specified via input, and draws that many words with the calling thread's
+     * ThreadLocalRandom. The words are joined with whitespace inbetween. Returns
      * the randomly generated phrase from the word list.
      **************************************************************************/
-    public static String getRandomWords(List<String> wordList, int numberOfWords) {
-        int index = 0;
-        String randomWords = "";
-
-        for (int i = 0; i < numberOfWords; i++) {
-            index = new Random().nextInt(wordList.size());
-            randomWords += wordList.get(index) + " ";
-        }
-        return randomWords.trim().toLowerCase();
+    public static String getRandomWords(Dictionary wordList, int numberOfWords) {
+        return PhraseGenerator.phrase(wordList, numberOfWords, ThreadLocalRandom.current());
     }
 }
\ No newline at end of file
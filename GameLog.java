@@ -0,0 +1,85 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * GameLog.java
+ *
+ * GameLog is the server's console logger. Messages below the level set with the game.log.level system property
+ * (DEBUG, INFO, WARN or OFF; INFO by default) are dropped before they are built, and the rest are handed to a
+ * background thread through a bounded queue, so a remote call never waits on the console. If the console falls so
+ * far behind that the queue is full, messages are dropped and counted instead of blocking the caller.
+ *
+ * Callers that build a message by concatenation check the level first:
+ *
+ *   if (GameLog.isDebug())
+ *       GameLog.debug("The phrase for " + player + " is: " + phrase);
+ */
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class GameLog {
+
+    public enum Level {
+        DEBUG, INFO, WARN, OFF
+    }
+
+    private static final Level LEVEL = Level.valueOf(System.getProperty("game.log.level", "INFO").toUpperCase());
+    private static final BlockingQueue<String> QUEUE = new ArrayBlockingQueue<>(8192);
+    private static final LongAdder DROPPED = new LongAdder();
+
+    static {
+        Thread writer = new Thread(GameLog::drain, "game-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private GameLog() {
+    }
+
+    public static boolean isDebug() {
+        return LEVEL == Level.DEBUG;
+    }
+
+    public static boolean isInfo() {
+        return LEVEL.compareTo(Level.INFO) <= 0;
+    }
+
+    public static void debug(String message) {
+        if (isDebug())
+            enqueue(message);
+    }
+
+    public static void info(String message) {
+        if (isInfo())
+            enqueue(message);
+    }
+
+    public static void warn(String message) {
+        if (LEVEL.compareTo(Level.WARN) <= 0)
+            enqueue(message);
+    }
+
+    /**************************************************************************
+     * dropped
+     *
+     * Returns how many messages were dropped because the queue was full.
+     **************************************************************************/
+    public static long dropped() {
+        return DROPPED.sum();
+    }
+
+    private static void enqueue(String message) {
+        if (!QUEUE.offer(message))
+            DROPPED.increment();
+    }
+
+    private static void drain() {
+        while (true) {
+            try {
+                System.out.println(QUEUE.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * GameLogReplay.java
+ *
+ * GameLogReplay reads a GameEventLog directory without a running server. By default it rebuilds the session table
+ * from the newest snapshot and the events after it, and prints how long that took and what it found. The options:
+ *
+ *   java GameLogReplay <dir>              rebuild from the newest snapshot and the events after it
+ *   java GameLogReplay <dir> full         rebuild from the first event still logged, ignoring snapshots
+ *   java GameLogReplay <dir> sessions     also print every session: player, score, tries and masked phrase; a
+ *                                         snapshot keeps neither tries nor phrase, so a session last seen before
+ *                                         the snapshot shows only its score
+ *   java GameLogReplay <dir> csv          print every event as CSV, for offline analysis, and nothing else
+ *
+ * The server may keep writing to the log meanwhile; the replay stops at the last complete event.
+ */
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+public class GameLogReplay {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || !Files.isDirectory(Paths.get(args[0]))) {
+            System.out.println("Usage: java GameLogReplay <dir> [full | sessions | csv]");
+            System.exit(1);
+        }
+        Path dir = Paths.get(args[0]);
+        String mode = args.length > 1 ? args[1] : "";
+
+        if (mode.equals("csv")) {
+            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+            out.write("sequence,time,type,player,letter,text,tries,score\n");
+            GameEventLog.recover(dir, false, e -> {
+                try {
+                    out.write(e.toCsv());
+                    out.write('\n');
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+            out.flush();
+            return;
+        }
+
+        long start = System.nanoTime();
+        GameEventLog.Recovery r = GameEventLog.recover(dir, !mode.equals("full"), null);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.println("Snapshot:  " + (r.snapshot == null ? "none" : r.snapshot.getFileName()));
+        System.out.println("Replayed:  " + r.events + " events in " + millis + "ms"
+                + (millis > 0 ? " (" + r.events * 1000 / millis + " events/s)" : ""));
+        System.out.println("Next:      event " + r.nextSequence);
+        System.out.println("Sessions:  " + r.table.sessions.size());
+        System.out.println("Players:   " + r.table.scores.size());
+        System.out.println("Complete:  " + (r.table.gap ? "no, events were dropped" : "yes"));
+
+        if (mode.equals("sessions")) {
+            for (Map.Entry<String, GameEventLog.Session> e : r.table.sessions.entrySet()) {
+                GameEventLog.Session s = e.getValue();
+                String hidden = s.hidden();
+                System.out.println(e.getKey() + " score " + s.score + " tries " + s.tries
+                        + (hidden == null ? "" : " " + hidden));
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * GameMetrics.java
+ *
+ * GameMetrics collects the numbers of a running GameHandler: calls, errors and latency of every remote method, the
+ * time spent waiting for a player's lock, and rounds won and lost. Recording is cheap enough for every call:
+ * counters are LongAdders, and each latency histogram is striped by thread so that threads rarely touch the same
+ * memory; the stripes are only merged when the metrics are read. Live and evicted sessions are read from the
+ * GameHandler when asked for.
+ *
+ * The metrics are registered over JMX as GameServer:type=Metrics, with one attribute per number, and can be printed
+ * on the server console with dump().
+ */
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+public class GameMetrics implements DynamicMBean {
+
+    /** The remote methods that are measured. */
+    public enum Call {
+        INITIALIZE_PLAYER("initializePlayer"), START_GAME("startGame"), GUESS_LETTER("guessLetter"),
+        GUESS_PHRASE("guessPhrase"), END_GAME("endGame"), RESTART_GAME("restartGame"), START_ROUND("startRound"),
+        REVEAL_LETTER("revealLetter"), SOLVE_PHRASE("solvePhrase"), GUESS_BATCH("guessBatch"),
+        JOIN_ROOM("joinRoom"), ROOM_GUESS("roomGuess"), LEAVE_ROOM("leaveRoom"), TOP_SCORES("topScores"),
+        STANDING("standing"), SCORES_AT("scoresAt"), HINT("hint");
+
+        final String method;
+
+        Call(String method) {
+            this.method = method;
+        }
+    }
+
+    private static final int STRIPES = Math.min(8,
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) * 2);
+
+    private final LongAdder[] calls = new LongAdder[Call.values().length];
+    private final LongAdder[] errors = new LongAdder[Call.values().length];
+    private final LatencyHistogram[][] latency = new LatencyHistogram[Call.values().length][];
+    private final LatencyHistogram[] lockWait = stripes();
+    private final LongAdder roundsWon = new LongAdder();
+    private final LongAdder roundsLost = new LongAdder();
+    private final List<String> gaugeNames = new ArrayList<>();
+    private final List<LongSupplier> gauges = new ArrayList<>();
+
+    public GameMetrics() {
+        for (Call c : Call.values()) {
+            calls[c.ordinal()] = new LongAdder();
+            errors[c.ordinal()] = new LongAdder();
+            latency[c.ordinal()] = stripes();
+        }
+    }
+
+    /**************************************************************************
+     * gauge
+     *
+     * Adds a number that is read from elsewhere whenever the metrics are read,
+     * such as the number of live sessions.
+     **************************************************************************/
+    public synchronized GameMetrics gauge(String name, LongSupplier value) {
+        gaugeNames.add(name);
+        gauges.add(value);
+        return this;
+    }
+
+    /**************************************************************************
+     * record
+     *
+     * Records one finished call of a remote method and how long it took.
+     **************************************************************************/
+    public void record(Call call, long nanos, boolean failed) {
+        calls[call.ordinal()].increment();
+        if (failed)
+            errors[call.ordinal()].increment();
+        stripe(latency[call.ordinal()]).record(nanos);
+    }
+
+    public void lockWait(long nanos) {
+        stripe(lockWait).record(nanos);
+    }
+
+    public void roundWon() {
+        roundsWon.increment();
+    }
+
+    public void roundLost() {
+        roundsLost.increment();
+    }
+
+    public long calls(Call call) {
+        return calls[call.ordinal()].sum();
+    }
+
+    public long errors(Call call) {
+        return errors[call.ordinal()].sum();
+    }
+
+    public LatencyHistogram latency(Call call) {
+        return merge(latency[call.ordinal()]);
+    }
+
+    public LatencyHistogram lockWait() {
+        return merge(lockWait);
+    }
+
+    public long roundsWon() {
+        return roundsWon.sum();
+    }
+
+    public long roundsLost() {
+        return roundsLost.sum();
+    }
+
+    /**************************************************************************
+     * dump
+     *
+     * Returns every metric as text, one line per remote method that was called.
+     **************************************************************************/
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        for (Call c : Call.values()) {
+            long n = calls(c);
+            if (n > 0)
+                sb.append(String.format("%-17s calls=%d errors=%d %s%n", c.method, n, errors(c), latency(c).summary()));
+        }
+        sb.append(String.format("%-17s %s%n", "lockWait", lockWait().summary()));
+        sb.append("roundsWon=").append(roundsWon()).append(" roundsLost=").append(roundsLost());
+        synchronized (this) {
+            for (int i = 0; i < gauges.size(); i++)
+                sb.append(' ').append(gaugeNames.get(i)).append('=').append(gauges.get(i).getAsLong());
+        }
+        return sb.append('\n').toString();
+    }
+
+    /**************************************************************************
+     * register
+     *
+     * Registers the metrics with the platform MBean server.
+     **************************************************************************/
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("GameServer:type=Metrics");
+            if (server.isRegistered(name))
+                server.unregisterMBean(name);
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            GameLog.warn("Could not register the metrics over JMX: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        switch (attribute) {
+        case "RoundsWon":
+            return roundsWon();
+        case "RoundsLost":
+            return roundsLost();
+        case "LockWaitP99Micros":
+            return lockWait().percentile(99) / 1e3;
+        }
+        synchronized (this) {
+            int gauge = gaugeNames.indexOf(attribute);
+            if (gauge >= 0)
+                return gauges.get(gauge).getAsLong();
+        }
+        for (Call c : Call.values()) {
+            if (!attribute.startsWith(c.method) || attribute.indexOf('.') != c.method.length())
+                continue;
+            switch (attribute.substring(c.method.length() + 1)) {
+            case "calls":
+                return calls(c);
+            case "errors":
+                return errors(c);
+            case "p50Micros":
+                return latency(c).percentile(50) / 1e3;
+            case "p99Micros":
+                return latency(c).percentile(99) / 1e3;
+            case "p999Micros":
+                return latency(c).percentile(99.9) / 1e3;
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String a : attributes) {
+            try {
+                list.add(new Attribute(a, getAttribute(a)));
+            } catch (AttributeNotFoundException e) {
+                // skipped, as the DynamicMBean contract asks
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        if (actionName.equals("dump"))
+            return dump();
+        throw new UnsupportedOperationException(actionName);
+    }
+
+    @Override
+    public synchronized MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        attributes.add(attribute("RoundsWon", "long", "Rounds won"));
+        attributes.add(attribute("RoundsLost", "long", "Rounds lost"));
+        attributes.add(attribute("LockWaitP99Micros", "double", "99th percentile of the player lock wait"));
+        for (String gauge : gaugeNames)
+            attributes.add(attribute(gauge, "long", gauge));
+        for (Call c : Call.values()) {
+            attributes.add(attribute(c.method + ".calls", "long", "Calls of " + c.method));
+            attributes.add(attribute(c.method + ".errors", "long", "Failed calls of " + c.method));
+            attributes.add(attribute(c.method + ".p50Micros", "double", "Median latency of " + c.method));
+            attributes.add(attribute(c.method + ".p99Micros", "double", "99th percentile latency of " + c.method));
+            attributes.add(attribute(c.method + ".p999Micros", "double", "99.9th percentile latency of " + c.method));
+        }
+        MBeanOperationInfo dump = new MBeanOperationInfo("dump", "All metrics as text", null, "java.lang.String",
+                MBeanOperationInfo.INFO);
+        return new MBeanInfo(getClass().getName(), "Phrase guessing game server metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[] { dump }, null);
+    }
+
+    private static MBeanAttributeInfo attribute(String name, String type, String description) {
+        return new MBeanAttributeInfo(name, type, description, true, false, false);
+    }
+
+    private static LatencyHistogram[] stripes() {
+        LatencyHistogram[] stripes = new LatencyHistogram[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new LatencyHistogram();
+        return stripes;
+    }
+
+    private static LatencyHistogram stripe(LatencyHistogram[] stripes) {
+        return stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+    }
+
+    private static LatencyHistogram merge(LatencyHistogram[] stripes) {
+        LatencyHistogram merged = new LatencyHistogram();
+        for (LatencyHistogram h : stripes)
+            merged.add(h);
+        return merged;
+    }
+}
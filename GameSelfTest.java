@@ -0,0 +1,499 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * GameSelfTest.java
+ *
+ * GameSelfTest checks the parts of the server whose mistakes do not show in a game played by hand. It needs nothing
+ * but the compiled classes and words.txt, runs every check in a few seconds and prints one line per check; it exits
+ * with status 1 if any of them failed.
+ *
+ *   results     GuessResult survives serialization, including negative and multi-byte varints
+ *   rounds      a player cannot guess without a round, also after the round was won or lost
+ *   rooms       RoomEvent survives serialization, including a REVEALED event without positions
+ *   leaderboard ranks, percentiles, scoreAt and the top list of the Fenwick tree against a count over all scores
+ *   eventlog    the events replay in order with the last score of every player, a record with a bad CRC ends the
+ *               log, a log opened after that keeps appending behind the last good record, and a log that dropped
+ *               events says so
+ *   admission   a token bucket admits exactly its burst, refills at its rate and is not shared between players,
+ *               and the call limit refuses the call past it
+ *   parking     a session comes back from the OffHeapSessionStore unchanged, and the index finds every remaining
+ *               session after thousands of deletes in random order
+ *
+ * Usage: java GameSelfTest [check ...]
+ */
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class GameSelfTest {
+
+    private static final PrintStream console = System.out;
+
+    /**************************************************************************
+     * Check
+     *
+     * One self check. Fails by throwing.
+     **************************************************************************/
+    interface Check {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, Check> checks = new LinkedHashMap<>();
+        checks.put("results", GameSelfTest::results);
+        checks.put("rounds", GameSelfTest::rounds);
+        checks.put("rooms", GameSelfTest::rooms);
+        checks.put("leaderboard", GameSelfTest::leaderboard);
+        checks.put("eventlog", GameSelfTest::eventLog);
+        checks.put("admission", GameSelfTest::admission);
+        checks.put("parking", GameSelfTest::parking);
+
+        // the handler logs every phrase it generates, keep that off the console
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setProperty("game.log.level", "WARN");
+
+        List<String> names = args.length > 0 ? Arrays.asList(args) : new ArrayList<>(checks.keySet());
+        int failed = 0;
+        for (String name : names) {
+            Check check = checks.get(name);
+            if (check == null) {
+                console.println("Unknown check " + name + ". Use " + String.join(", ", checks.keySet()) + ".");
+                failed++;
+                continue;
+            }
+            long start = System.nanoTime();
+            try {
+                check.run();
+                console.printf("PASS %-12s %,6dms%n", name, (System.nanoTime() - start) / 1_000_000);
+            } catch (Exception | AssertionError e) {
+                console.println("FAIL " + name + ": " + e);
+                failed++;
+            }
+        }
+        console.println(failed == 0 ? "All checks passed." : failed + " checks failed.");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**************************************************************************
+     * results
+     *
+     * Writes results through an ObjectOutputStream and reads them back, with
+     * values on both sides of every varint byte boundary.
+     **************************************************************************/
+    static void results() throws Exception {
+        int[] values = { 0, 1, -1, 63, -64, 64, -65, 8191, 8192, -8193, 1 << 20, Integer.MAX_VALUE,
+                Integer.MIN_VALUE };
+        for (int v : values) {
+            int[] positions = { 0, 1, 127, 128, 16384, 16385, 1 << 22 };
+            GuessResult r = roundTrip(GuessResult.progress(v, v, 'q', positions, null));
+            check(r.getStatus() == GuessResult.Status.IN_PROGRESS, "status of progress " + v);
+            check(r.getTries() == v && r.getScore() == v, "varint " + v + " came back as " + r.getScore());
+            check(r.getLetter() == 'q' && Arrays.equals(r.getRevealed(), positions), "positions of " + v);
+            check(r.getPhrase() == null, "phrase of progress");
+        }
+        GuessResult started = roundTrip(GuessResult.started("---- -- \u00e9t\u00e9", 7, -3));
+        check(started.getPhrase().equals("---- -- \u00e9t\u00e9") && started.getTries() == 7
+                && started.getScore() == -3 && started.getRevealed().length == 0, "started " + started.getPhrase());
+        GuessResult missed = roundTrip(GuessResult.progress(4, 2, '\0', null, null));
+        check(missed.getRevealed().length == 0 && missed.getTries() == 4, "wrong guess");
+        GuessResult won = roundTrip(GuessResult.won("spring rain", 12));
+        check(won.isOver() && won.getStatus() == GuessResult.Status.WON && won.getPhrase().equals("spring rain")
+                && won.getScore() == 12, "won");
+        GuessResult lost = roundTrip(GuessResult.lost("spring rain", -5));
+        check(lost.getStatus() == GuessResult.Status.LOST && lost.getScore() == -5, "lost");
+    }
+
+    /**************************************************************************
+     * rounds
+     *
+     * Guesses before the first round and after a round is over must be
+     * refused and must not change the score.
+     **************************************************************************/
+    static void rounds() throws Exception {
+        GameHandler game = new GameHandler(new InMemoryScoreStore(), 2);
+        try {
+            check(game.initializePlayer("ann"), "could not register ann");
+            check(!game.initializePlayer("ann"), "registered ann twice");
+            refusedGuess(game, "ann");
+
+            GuessResult r = game.startRound("ann", 1, 30);
+            for (char c = 'a'; c <= 'z' && !r.isOver(); c++)
+                r = game.revealLetter("ann", c);
+            check(r.getStatus() == GuessResult.Status.WON, "round not won: " + r.getStatus());
+            int score = game.standing("ann").getScore();
+            refusedGuess(game, "ann");
+
+            check(game.standing("ann").getScore() == score, "guesses after a win changed the score");
+
+            r = game.startRound("ann", 1, 1);
+            for (char c = 'z'; c >= 'a' && !r.isOver(); c--)
+                r = game.revealLetter("ann", c);
+            check(r.isOver(), "round not over");
+            score = game.standing("ann").getScore();
+            refusedGuess(game, "ann");
+            check(game.standing("ann").getScore() == score, "guesses after a loss changed the score");
+        } finally {
+            game.shutdown();
+        }
+    }
+
+    private static void refusedGuess(GameHandler game, String player) {
+        for (Check guess : new Check[] { () -> game.revealLetter(player, 'e'), () -> game.solvePhrase(player, "x"),
+                () -> game.hint(player) }) {
+            try {
+                guess.run();
+            } catch (RemoteException e) {
+                continue;
+            } catch (Exception e) {
+                throw new AssertionError("refused with " + e);
+            }
+            throw new AssertionError("guess without a round was taken");
+        }
+    }
+
+    /**************************************************************************
+     * rooms
+     *
+     * Same for room events, including a reveal of a letter that was already
+     * shown, which has a letter but no positions.
+     **************************************************************************/
+    static void rooms() throws Exception {
+        RoomEvent round = roundTrip(RoomEvent.round(300, "----- ----", 9, 0));
+        check(round.getType() == RoomEvent.Type.ROUND && round.getRound() == 300
+                && round.getPhrase().equals("----- ----") && round.getTries() == 9 && round.getPlayer() == null,
+                "room round");
+        RoomEvent revealed = roundTrip(RoomEvent.revealed(1, "ann", 'e', new int[] { 2, 200, 20000 }, -70));
+        check(revealed.getType() == RoomEvent.Type.REVEALED && revealed.getPlayer().equals("ann")
+                && revealed.getLetter() == 'e' && Arrays.equals(revealed.getPositions(), new int[] { 2, 200, 20000 })
+                && revealed.getScore() == -70, "room reveal");
+        RoomEvent shown = roundTrip(RoomEvent.revealed(2, "bob", 'x', null, 1));
+        check(shown.getLetter() == 'x' && shown.getPositions().length == 0, "reveal without positions lost its letter");
+        RoomEvent miss = roundTrip(RoomEvent.missed(Integer.MAX_VALUE, 0, Integer.MIN_VALUE));
+        check(miss.getType() == RoomEvent.Type.MISSED && miss.getRound() == Integer.MAX_VALUE
+                && miss.getScore() == Integer.MIN_VALUE, "room miss");
+        RoomEvent solved = roundTrip(RoomEvent.solved(5, "\u00e5sa", "quiet harbour", 40));
+        check(solved.getPlayer().equals("\u00e5sa") && solved.getPhrase().equals("quiet harbour"), "room solve");
+    }
+
+    /**************************************************************************
+     * leaderboard
+     *
+     * Records random scores, some beyond the exact range and some changed
+     * again later, and compares every standing, a range of percentiles and
+     * the top list with a count over the scores as the leaderboard clamps
+     * them.
+     **************************************************************************/
+    static void leaderboard() {
+        Random random = new Random(7);
+        Leaderboard board = new Leaderboard();
+        Map<String, Integer> scores = new HashMap<>();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 3000; i++) {
+                if (round > 0 && random.nextInt(3) != 0)
+                    continue;
+                int score = random.nextInt(10) == 0 ? random.nextInt() : random.nextInt(400) - 200;
+                board.record("p" + i, score);
+                scores.put("p" + i, score);
+            }
+        }
+        int n = scores.size();
+        check(board.players() == n, "players " + board.players() + " != " + n);
+
+        int[] clamped = new int[n];
+        int k = 0;
+        for (int score : scores.values())
+            clamped[k++] = clamp(score);
+        Arrays.sort(clamped);
+        for (Map.Entry<String, Integer> e : scores.entrySet()) {
+            int score = clamp(e.getValue());
+            int above = 0;
+            int atOrBelow = 0;
+            for (int other : clamped) {
+                if (other > score)
+                    above++;
+                else
+                    atOrBelow++;
+            }
+            Standing s = board.standing(e.getKey());
+            check(s.getScore() == e.getValue(), "score of " + e.getKey());
+            check(s.getRank() == above + 1, e.getKey() + " ranked " + s.getRank() + ", expected " + (above + 1));
+            check(Math.abs(s.getPercentile() - atOrBelow * 100.0 / n) < 1e-9, "percentile of " + e.getKey());
+        }
+        check(board.standing("nobody") == null, "standing of an unknown player");
+
+        for (double percentile = 0; percentile <= 100; percentile += 0.5) {
+            int wanted = (int) Math.max(1, Math.ceil(percentile / 100 * n));
+            check(board.scoreAt(percentile) == clamped[wanted - 1], "scoreAt(" + percentile + ") = "
+                    + board.scoreAt(percentile) + ", expected " + clamped[wanted - 1]);
+        }
+
+        List<Standing> top = board.top(50);
+        check(top.size() == 50, "top size " + top.size());
+        for (int i = 0; i < top.size(); i++) {
+            check(clamp(top.get(i).getScore()) == clamped[n - 1 - i], "top " + i + " is " + top.get(i));
+            check(top.get(i).getRank() == board.standing(top.get(i).getPlayer()).getRank(), "rank in top " + i);
+        }
+    }
+
+    // the exact range of the Leaderboard
+    private static int clamp(int score) {
+        return Math.min(65535, Math.max(-65536, score));
+    }
+
+    /**************************************************************************
+     * eventLog
+     *
+     * Writes events into a log with small segments, replays them, damages a
+     * record in the middle of the last segment and checks that recovery ends
+     * just before it, and that the log opened afterwards continues from there
+     * with consecutive sequence numbers.
+     **************************************************************************/
+    static void eventLog() throws Exception {
+        Path dir = Files.createTempDirectory("selftest-events");
+        try {
+            int events = 5000;
+            GameEventLog log = new GameEventLog(dir, 1 << 16, Long.MAX_VALUE, 1 << 20, false);
+            Map<String, Integer> scores = new HashMap<>();
+            for (int i = 0; i < events; i++) {
+                String player = "p" + (i % 37);
+                log.append(new GameEvent(GameEvent.Type.LETTER, i, player, 'e', null, 5, i));
+                scores.put(player, i);
+            }
+            log.close();
+            check(log.written() == events && log.pending() == 0, "wrote " + log.written() + " of " + events);
+            // a crash leaves no snapshot of the last events, so recovery has to read the segments
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "snapshot-*")) {
+                for (Path p : stream)
+                    Files.delete(p);
+            }
+
+            List<GameEvent> replayed = new ArrayList<>();
+            GameEventLog.Recovery r = GameEventLog.recover(dir, false, replayed::add);
+            check(r.events == events && r.nextSequence == events, "replayed " + r.events + " of " + events);
+            for (int i = 0; i < events; i++)
+                check(replayed.get(i).sequence == i && replayed.get(i).score == i, "event " + i + " out of order");
+            check(r.table.scores.equals(scores), "replayed scores differ");
+
+            // flip a byte in the body of a record in the middle of the last segment
+            List<Path> segments = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "events-*.log")) {
+                for (Path p : stream)
+                    segments.add(p);
+            }
+            Collections.sort(segments);
+            check(segments.size() > 1, "expected several segments, found " + segments.size());
+            Path last = segments.get(segments.size() - 1);
+            long damaged;
+            try (FileChannel channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+                int first = 0;
+                int at = 16;
+                while (at + 8 <= buffer.limit() && buffer.getInt(at) > 0) {
+                    first++;
+                    at += 8 + buffer.getInt(at);
+                }
+                at = 16;
+                for (int i = 0; i < first / 2; i++)
+                    at += 8 + buffer.getInt(at);
+                damaged = buffer.getLong(at + 8);
+                buffer.put(at + 20, (byte) (buffer.get(at + 20) ^ 0x55));
+                buffer.force();
+            }
+            r = GameEventLog.recover(dir, false, null);
+            check(r.events == damaged && r.nextSequence == damaged, "recovery read " + r.events
+                    + " events past the damaged record " + damaged);
+
+            int sessions = r.table.sessions.size();
+            log = new GameEventLog(dir, 1 << 16, Long.MAX_VALUE, 1 << 20, false);
+            for (int i = 0; i < 100; i++)
+                log.append(new GameEvent(GameEvent.Type.LETTER, i, "q", 'a', null, 1, i));
+            log.close();
+            long[] expected = { 0 };
+            r = GameEventLog.recover(dir, false, e -> {
+                check(e.sequence == expected[0]++, "sequence " + e.sequence + " after reopening");
+            });
+            check(r.events == damaged + sessions + 100, "after reopening replayed " + r.events + ", expected "
+                    + (damaged + sessions + 100));
+            check(r.table.sessions.keySet().equals(Collections.singleton("q")), "sessions left after reopening: "
+                    + r.table.sessions.keySet());
+            log = new GameEventLog(dir, 1 << 16, Long.MAX_VALUE, 1 << 20, false);
+            check(log.complete(), "a log without drops is not complete");
+            log.close();
+
+            // a queue of one event drops most of a burst, which the log has to remember across a snapshot
+            log = new GameEventLog(dir, 1 << 16, Long.MAX_VALUE, 1, false);
+            for (int i = 0; i < 1000; i++)
+                log.append(new GameEvent(GameEvent.Type.LETTER, i, "q", 'a', null, 1, i));
+            log.close();
+            check(log.dropped() > 0, "nothing dropped");
+            log = new GameEventLog(dir, 1 << 16, Long.MAX_VALUE, 1 << 20, false);
+            check(!log.complete(), "a log that dropped events is complete");
+            log.close();
+            check(GameEventLog.recover(dir, true, null).table.gap, "the snapshot lost the gap");
+        } finally {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path p : stream)
+                    Files.deleteIfExists(p);
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    /**************************************************************************
+     * admission
+     *
+     * Drains token buckets at 20 calls a second with a burst of 4: exactly
+     * four calls get in, the fifth is told to wait at most one interval, and
+     * after that wait one more call gets in.
+     **************************************************************************/
+    static void admission() throws Exception {
+        AdmissionControl admission = new AdmissionControl(20, 4, 64, 2, 10, 10, 10, 100);
+        Player ann = new Player("ann");
+        Player bob = new Player("bob");
+        for (int i = 0; i < 4; i++)
+            admission.admit(ann, ann.name, 1);
+        long retry = refused(() -> admission.admit(ann, ann.name, 1), ServerBusyException.Reason.RATE_LIMITED);
+        check(retry > 0 && retry <= 50, "retry after " + retry + "ms");
+        check(admission.rateLimited() == 1, "rate limited " + admission.rateLimited());
+        for (int i = 0; i < 4; i++)
+            admission.admit(bob, bob.name, 1);
+        refused(() -> admission.admit(bob, bob.name, 1), ServerBusyException.Reason.RATE_LIMITED);
+
+        // names without a session have buckets of their own
+        for (int i = 0; i < 4; i++)
+            admission.admit(null, "carl", 1);
+        refused(() -> admission.admit(null, "carl", 1), ServerBusyException.Reason.RATE_LIMITED);
+
+        // a call that costs more than the burst takes the whole burst
+        Player dora = new Player("dora");
+        admission.admit(dora, dora.name, 100);
+        refused(() -> admission.admit(dora, dora.name, 1), ServerBusyException.Reason.RATE_LIMITED);
+
+        Thread.sleep(retry + 5);
+        admission.admit(ann, ann.name, 1);
+        refused(() -> admission.admit(ann, ann.name, 1), ServerBusyException.Reason.RATE_LIMITED);
+
+        admission.enter();
+        admission.enter();
+        refused(admission::enter, ServerBusyException.Reason.OVERLOADED);
+        check(admission.calls() == 2, "calls " + admission.calls());
+        admission.exit();
+        admission.enter();
+        admission.exit();
+        admission.exit();
+        check(admission.calls() == 0 && admission.overloaded() == 1, "calls after exits " + admission.calls());
+
+        AdmissionControl unlimited = new AdmissionControl(0, 4, 64, 0, 10, 10, 10, 100);
+        for (int i = 0; i < 10000; i++)
+            unlimited.admit(ann, ann.name, 1);
+    }
+
+    private static long refused(Check call, ServerBusyException.Reason reason) throws Exception {
+        try {
+            call.run();
+        } catch (ServerBusyException e) {
+            check(e.getReason() == reason, "refused as " + e.getReason() + ", expected " + reason);
+            return e.getRetryAfterMillis();
+        }
+        throw new AssertionError("not refused, expected " + reason);
+    }
+
+    /**************************************************************************
+     * parking
+     *
+     * Parks sessions with rounds in progress and takes them back, then parks
+     * many sessions and takes them out in random order, so entries are moved
+     * back over the holes of the index again and again.
+     **************************************************************************/
+    static void parking() {
+        Dictionary words = Dictionary.shared();
+        Random random = new Random(11);
+        OffHeapSessionStore store = new OffHeapSessionStore();
+        for (int i = 0; i < 200; i++) {
+            Player p = new Player("player-" + i);
+            p.totalScore = random.nextInt(2000) - 1000;
+            p.numberOfTries = random.nextInt(30);
+            p.phrases.set(random.nextInt(1000));
+            if (i % 10 != 0) {
+                p.round = new PhraseState(GameHandler.getRandomWords(words, 1 + random.nextInt(5)));
+                for (int g = random.nextInt(12); g > 0; g--)
+                    p.round.reveal((char) ('a' + random.nextInt(26)));
+            }
+            check(store.park(p, words), "could not park " + p.name);
+            check(!store.park(p, words), "parked " + p.name + " twice");
+            Player back = store.take(p.name);
+            check(back != null && back.name.equals(p.name), "took back " + p.name);
+            check(back.totalScore == p.totalScore && back.numberOfTries == p.numberOfTries
+                    && back.phrases.get() == p.phrases.get(), "counters of " + p.name);
+            check(back.round.phrase().equals(p.round.phrase()), "phrase of " + p.name);
+            check(back.round.hidden().equals(p.round.hidden()), "masked phrase of " + p.name + ": "
+                    + back.round.hidden() + " != " + p.round.hidden());
+            for (char c = 0; c < 128; c++)
+                check(back.round.wasGuessed(c) == p.round.wasGuessed(c), "guessed " + c + " of " + p.name);
+            check(store.take(p.name) == null, "took " + p.name + " twice");
+        }
+        check(store.size() == 0, "store not empty");
+
+        int players = 20000;
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < players; i++) {
+            Player p = new Player("p" + i);
+            p.totalScore = i;
+            check(store.park(p, words), "could not park p" + i);
+            names.add(p.name);
+        }
+        Collections.shuffle(names, random);
+        for (int i = 0; i < players; i++) {
+            String name = names.get(i);
+            Player p = store.take(name);
+            check(p != null && p.totalScore == Integer.parseInt(name.substring(1)), "lost " + name);
+            if (i % 1000 == 0)
+                for (int j = i + 1; j < players; j++)
+                    check(store.contains(names.get(j)), "index lost " + names.get(j) + " after " + (i + 1)
+                            + " deletes");
+            if (i == players / 2) {
+                // refill part of the holes, so inserts and deletes mix
+                for (int j = 0; j <= i; j += 2)
+                    check(store.park(new Player(names.get(j)), words), "could not park " + names.get(j) + " again");
+                for (int j = 0; j <= i; j += 2)
+                    check(store.take(names.get(j)) != null, "lost " + names.get(j) + " parked again");
+            }
+        }
+        check(store.size() == 0, "store not empty after all deletes: " + store.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T roundTrip(T object) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T) in.readObject();
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition)
+            throw new AssertionError(message);
+    }
+}
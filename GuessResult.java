@@ -0,0 +1,205 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * GuessResult.java
+ *
+ * GuessResult is the structured reply of the second version of the remote API. Instead of a String holding the whole
+ * masked phrase, a reply to a guess carries the status of the round, the tries left, the total score and only the
+ * positions that the guess newly revealed. The client keeps its own copy of the masked phrase and applies these
+ * deltas to it. The masked phrase is sent once when a round starts, and the real phrase once when it ends.
+ *
+ * The class is Externalizable and writes itself as a status byte followed by variable length integers, so a typical
+ * reply to a letter guess is a handful of bytes no matter how long the phrase is.
+ */
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.StandardCharsets;
+
+public class GuessResult implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    private static final int[] NONE = new int[0];
+
+    public enum Status {
+        IN_PROGRESS, WON, LOST
+    }
+
+    private Status status;
+    private int tries;
+    private int score;
+    private char letter;
+    private int[] revealed;
+    private String phrase;
+
+    /** Only used by serialization. */
+    public GuessResult() {
+        this.revealed = NONE;
+    }
+
+    private GuessResult(Status status, int tries, int score, char letter, int[] revealed, String phrase) {
+        this.status = status;
+        this.tries = tries;
+        this.score = score;
+        this.letter = letter;
+        this.revealed = revealed == null ? NONE : revealed;
+        this.phrase = phrase;
+    }
+
+    /**************************************************************************
+     * started
+     *
+     * Result of starting a round. Carries the masked phrase so the client can
+     * apply the deltas of the following guesses to it.
+     **************************************************************************/
+    public static GuessResult started(String maskedPhrase, int tries, int score) {
+        return new GuessResult(Status.IN_PROGRESS, tries, score, '\0', null, maskedPhrase);
+    }
+
+    /**************************************************************************
+     * progress
+     *
+     * Result of a guess that did not end the round. The letter and positions
+     * are the newly revealed part of the phrase; both are empty after a wrong
+     * guess. The masked phrase is only filled in for the String API, which has
+     * to print the whole phrase after every guess.
+     **************************************************************************/
+    public static GuessResult progress(int tries, int score, char letter, int[] revealed, String maskedPhrase) {
+        return new GuessResult(Status.IN_PROGRESS, tries, score, letter, revealed, maskedPhrase);
+    }
+
+    public static GuessResult won(String phrase, int score) {
+        return new GuessResult(Status.WON, 0, score, '\0', null, phrase);
+    }
+
+    public static GuessResult lost(String phrase, int score) {
+        return new GuessResult(Status.LOST, 0, score, '\0', null, phrase);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isOver() {
+        return status == Status.WON || status == Status.LOST;
+    }
+
+    public int getTries() {
+        return tries;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public char getLetter() {
+        return letter;
+    }
+
+    public int[] getRevealed() {
+        return revealed;
+    }
+
+    /**************************************************************************
+     * getPhrase
+     *
+     * The masked phrase when a round starts, the real phrase when it ends, and
+     * null in between.
+     **************************************************************************/
+    public String getPhrase() {
+        return phrase;
+    }
+
+    /**************************************************************************
+     * applyTo
+     *
+     * Writes the letters revealed by this result into the client's copy of
+     * the masked phrase.
+     **************************************************************************/
+    public void applyTo(char[] masked) {
+        for (int pos : revealed)
+            masked[pos] = letter;
+    }
+
+    /**************************************************************************
+     * render
+     *
+     * Formats this result the way the String API has always replied, given
+     * the masked phrase as the client sees it.
+     **************************************************************************/
+    public String render(String maskedPhrase) {
+        switch (status) {
+        case WON:
+            return "Winner! The phrase was: " + phrase + " Total Score: " + score + '\n';
+        case LOST:
+            return "Lost this round! The phrase was: " + phrase + " Total Score: " + score + '\n';
+        default:
+            return maskedPhrase + " Tries: " + tries + " Total Score: " + score + '\n';
+        }
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(status.ordinal() | (phrase != null ? 0x80 : 0));
+        writeVarInt(out, tries);
+        writeVarInt(out, score);
+        writeVarInt(out, revealed.length);
+        if (revealed.length > 0) {
+            out.writeChar(letter);
+            // positions are ascending, so only the gaps between them are written
+            int last = 0;
+            for (int pos : revealed) {
+                writeVarInt(out, pos - last);
+                last = pos;
+            }
+        }
+        if (phrase != null) {
+            byte[] bytes = phrase.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        int head = in.readUnsignedByte();
+        status = Status.values()[head & 0x7f];
+        tries = readVarInt(in);
+        score = readVarInt(in);
+        int count = readVarInt(in);
+        revealed = count == 0 ? NONE : new int[count];
+        if (count > 0) {
+            letter = in.readChar();
+            int last = 0;
+            for (int i = 0; i < count; i++)
+                revealed[i] = last += readVarInt(in);
+        }
+        if ((head & 0x80) != 0) {
+            byte[] bytes = new byte[readVarInt(in)];
+            in.readFully(bytes);
+            phrase = new String(bytes, StandardCharsets.UTF_8);
+        } else {
+            phrase = null;
+        }
+    }
+
+    // zigzag encoded so that negative scores stay short
+    static void writeVarInt(ObjectOutput out, int value) throws IOException {
+        int v = (value << 1) ^ (value >> 31);
+        while ((v & ~0x7f) != 0) {
+            out.writeByte((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    static int readVarInt(ObjectInput in) throws IOException {
+        int v = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return (v >>> 1) ^ -(v & 1);
+        }
+    }
+}
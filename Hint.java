@@ -0,0 +1,51 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * Hint.java
+ *
+ * Hint is the reply of the hint call: the letter the HintEngine would guess next, and for every word of the phrase
+ * the number of dictionary words that still fit it, with a few of them. The words are in the order of the phrase;
+ * a word that is fully revealed has one candidate, itself.
+ */
+import java.io.Serializable;
+
+public final class Hint implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final char letter;
+    private final int[] counts;
+    private final String[][] candidates;
+
+    public Hint(char letter, int[] counts, String[][] candidates) {
+        this.letter = letter;
+        this.counts = counts;
+        this.candidates = candidates;
+    }
+
+    /** The best next letter, or '\0' if no word of the dictionary fits the phrase any more. */
+    public char getLetter() {
+        return letter;
+    }
+
+    /** The number of words that fit each word of the phrase. */
+    public int[] getCounts() {
+        return counts;
+    }
+
+    /** Some of the words that fit each word of the phrase, at most game.hint.words of them. */
+    public String[][] getCandidates() {
+        return candidates;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(letter == '\0' ? "No letter to suggest." : "Try " + letter + ".");
+        for (int w = 0; w < counts.length; w++) {
+            sb.append("\nWord ").append(w + 1).append(": ").append(counts[w]).append(" candidates");
+            if (candidates[w].length > 0)
+                sb.append(", e.g. ").append(String.join(" ", candidates[w]));
+        }
+        return sb.toString();
+    }
+}
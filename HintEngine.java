@@ -0,0 +1,309 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * HintEngine.java
+ *
+ * HintEngine finds the dictionary words that still fit each word of a player's masked phrase, and the letter most
+ * likely to reveal something next. The words of the Dictionary are put in one bucket per length, and every bucket
+ * keeps bitsets over its words: one per position and character, set for the words that have that character there,
+ * and one per character, set for the words that contain it anywhere. Characters are told apart as the letters a to z
+ * and the digits; all other characters share one bitset, so they only narrow the candidates where they are shown.
+ *
+ * A revealed letter keeps the words that have it at exactly the shown positions, and a letter that was guessed but is
+ * not shown in a word drops every word containing it, since a guess reveals all its occurrences. Both are a few ANDs
+ * over the bitsets of one bucket. The candidates of every word are kept in the player's State between hints, so each
+ * hint only applies the letters guessed since the last one. The next letter is the one with the highest sum, over the
+ * words of the phrase, of the share of candidates that contain it; once few candidates are left they are counted one
+ * by one instead of over the bitsets.
+ *
+ * An engine belongs to one Dictionary and is built on the first call to Dictionary.hints(), which the server makes
+ * when it starts and the DictionaryManager before it swaps in a reloaded dictionary. It takes about five bytes per
+ * character of the dictionary.
+ */
+import java.util.Arrays;
+
+public class HintEngine {
+    private static final int DIGITS = 26;
+    private static final int OTHER = 36;
+    private static final int CODES = 37;
+    private static final int LISTED = Integer.getInteger("game.hint.words", 10);
+
+    private final Dictionary dictionary;
+    private final Bucket[] buckets;
+
+    public HintEngine(Dictionary dictionary) {
+        this.dictionary = dictionary;
+        int size = dictionary.size();
+        int maxLength = 0;
+        for (int i = 0; i < size; i++)
+            maxLength = Math.max(maxLength, dictionary.length(i));
+
+        int[] counts = new int[maxLength + 1];
+        for (int i = 0; i < size; i++)
+            counts[dictionary.length(i)]++;
+        this.buckets = new Bucket[maxLength + 1];
+        for (int length = 1; length <= maxLength; length++)
+            if (counts[length] > 0)
+                buckets[length] = new Bucket(length, counts[length]);
+        for (int i = 0; i < size; i++)
+            buckets[dictionary.length(i)].add(dictionary, i);
+    }
+
+    /**************************************************************************
+     * state
+     *
+     * Returns the hint state of a round: the given one if it belongs to the
+     * same round and this engine, a fresh one otherwise.
+     **************************************************************************/
+    public State state(State state, PhraseState round) {
+        if (state != null && state.round == round && state.engine == this)
+            return state;
+        return new State(this, round);
+    }
+
+    /**************************************************************************
+     * hint
+     *
+     * Narrows the candidates of the state by the letters guessed since the
+     * last hint and returns the best next letter with the candidates. Must be
+     * called with the lock of the player who owns the state.
+     **************************************************************************/
+    public Hint hint(State state) {
+        char[] hidden = state.round.hidden().toCharArray();
+        narrow(state, hidden);
+
+        int words = state.starts.length;
+        double[] scores = new double[OTHER];
+        int[] counts = new int[words];
+        String[][] candidates = new String[words][];
+        for (int w = 0; w < words; w++) {
+            counts[w] = state.counts[w];
+            candidates[w] = list(state, w);
+            if (counts[w] > 0 && isMasked(hidden, state.starts[w], state.lengths[w]))
+                score(state, w, scores);
+        }
+
+        char best = '\0';
+        double bestScore = 0;
+        for (int c = 0; c < OTHER; c++) {
+            char letter = letter(c);
+            if (scores[c] > bestScore && !state.round.wasGuessed(letter)) {
+                best = letter;
+                bestScore = scores[c];
+            }
+        }
+        return new Hint(best, counts, candidates);
+    }
+
+    /**************************************************************************
+     * narrow
+     *
+     * Applies every letter guessed in the round that the state has not seen
+     * yet to the candidates of every word.
+     **************************************************************************/
+    private void narrow(State state, char[] hidden) {
+        for (char g = 0; g < 128; g++) {
+            if (g == ' ' || g == '-' || !state.round.wasGuessed(g) || (state.applied[g >>> 6] & (1L << g)) != 0)
+                continue;
+            state.applied[g >>> 6] |= 1L << g;
+            int code = code(g);
+            for (int w = 0; w < state.starts.length; w++) {
+                long[] candidates = state.candidates[w];
+                if (state.counts[w] == 0)
+                    continue;
+                Bucket b = buckets[state.lengths[w]];
+                int start = state.starts[w];
+                boolean shown = false;
+                for (int j = 0; j < b.length; j++)
+                    shown |= hidden[start + j] == g;
+
+                if (!shown) {
+                    if (code != OTHER)
+                        andNot(candidates, b.contains, code * b.longs);
+                } else {
+                    for (int j = 0; j < b.length; j++) {
+                        if (hidden[start + j] == g)
+                            and(candidates, b.positions, (j * CODES + code) * b.longs);
+                        else if (code != OTHER)
+                            andNot(candidates, b.positions, (j * CODES + code) * b.longs);
+                    }
+                }
+                state.counts[w] = count(candidates);
+            }
+        }
+    }
+
+    /**************************************************************************
+     * score
+     *
+     * Adds, for every character, the share of the word's candidates that
+     * contain it.
+     **************************************************************************/
+    private void score(State state, int w, double[] scores) {
+        Bucket b = buckets[state.lengths[w]];
+        long[] candidates = state.candidates[w];
+        double count = state.counts[w];
+
+        if ((long) state.counts[w] * b.length < (long) OTHER * b.longs) {
+            // few candidates left: look at their characters
+            int[] hits = new int[OTHER];
+            for (int k = 0; k < b.longs; k++) {
+                for (long bits = candidates[k]; bits != 0; bits &= bits - 1) {
+                    int word = b.words[(k << 6) + Long.numberOfTrailingZeros(bits)];
+                    long seen = 0;
+                    for (int j = 0; j < b.length; j++)
+                        seen |= 1L << code(dictionary.byteAt(word, j));
+                    for (long s = seen & ~(1L << OTHER); s != 0; s &= s - 1)
+                        hits[Long.numberOfTrailingZeros(s)]++;
+                }
+            }
+            for (int c = 0; c < OTHER; c++)
+                scores[c] += hits[c] / count;
+        } else {
+            // only visit the parts of the bitsets that still hold candidates
+            int[] live = new int[b.longs];
+            int n = 0;
+            for (int k = 0; k < b.longs; k++)
+                if (candidates[k] != 0)
+                    live[n++] = k;
+            for (int c = 0; c < OTHER; c++) {
+                if (state.round.wasGuessed(letter(c)))
+                    continue;
+                int hits = 0;
+                int offset = c * b.longs;
+                for (int i = 0; i < n; i++)
+                    hits += Long.bitCount(candidates[live[i]] & b.contains[offset + live[i]]);
+                scores[c] += hits / count;
+            }
+        }
+    }
+
+    private String[] list(State state, int w) {
+        String[] listed = new String[Math.min(LISTED, state.counts[w])];
+        if (listed.length == 0)
+            return listed;
+        Bucket b = buckets[state.lengths[w]];
+        long[] candidates = state.candidates[w];
+        int n = 0;
+        for (int k = 0; k < b.longs && n < listed.length; k++)
+            for (long bits = candidates[k]; bits != 0 && n < listed.length; bits &= bits - 1)
+                listed[n++] = dictionary.word(b.words[(k << 6) + Long.numberOfTrailingZeros(bits)]);
+        return listed;
+    }
+
+    private static boolean isMasked(char[] hidden, int start, int length) {
+        for (int j = start; j < start + length; j++)
+            if (hidden[j] == '-')
+                return true;
+        return false;
+    }
+
+    private static void and(long[] candidates, long[] bits, int offset) {
+        for (int k = 0; k < candidates.length; k++)
+            if (candidates[k] != 0)
+                candidates[k] &= bits[offset + k];
+    }
+
+    private static void andNot(long[] candidates, long[] bits, int offset) {
+        for (int k = 0; k < candidates.length; k++)
+            if (candidates[k] != 0)
+                candidates[k] &= ~bits[offset + k];
+    }
+
+    private static int count(long[] candidates) {
+        int count = 0;
+        for (long bits : candidates)
+            count += Long.bitCount(bits);
+        return count;
+    }
+
+    private static int code(int c) {
+        if (c >= 'a' && c <= 'z')
+            return c - 'a';
+        if (c >= '0' && c <= '9')
+            return DIGITS + c - '0';
+        return OTHER;
+    }
+
+    private static char letter(int code) {
+        return (char) (code < DIGITS ? 'a' + code : '0' + code - DIGITS);
+    }
+
+    /**************************************************************************
+     * Bucket
+     *
+     * The words of one length and their bitsets. The bitsets of one position
+     * and character, or one character, lie next to each other in one array.
+     **************************************************************************/
+    private static final class Bucket {
+        final int length;
+        final int[] words;
+        final int longs;
+        final long[] positions;
+        final long[] contains;
+        int size;
+
+        Bucket(int length, int count) {
+            this.length = length;
+            this.words = new int[count];
+            this.longs = (count + 63) >>> 6;
+            this.positions = new long[length * CODES * longs];
+            this.contains = new long[CODES * longs];
+        }
+
+        void add(Dictionary dictionary, int word) {
+            int n = size++;
+            words[n] = word;
+            int k = n >>> 6;
+            long bit = 1L << n;
+            for (int j = 0; j < length; j++) {
+                int c = code(dictionary.byteAt(word, j));
+                positions[(j * CODES + c) * longs + k] |= bit;
+                contains[c * longs + k] |= bit;
+            }
+        }
+
+        long[] all() {
+            long[] all = new long[longs];
+            Arrays.fill(all, -1L);
+            if ((size & 63) != 0)
+                all[longs - 1] = (1L << size) - 1;
+            return all;
+        }
+    }
+
+    /**************************************************************************
+     * State
+     *
+     * The candidates of every word of one round's phrase, and the letters
+     * already applied to them. Kept in the Player between hints.
+     **************************************************************************/
+    public static final class State {
+        private final HintEngine engine;
+        private final PhraseState round;
+        private final int[] starts;
+        private final int[] lengths;
+        private final long[][] candidates;
+        private final int[] counts;
+        private final long[] applied = new long[2];
+
+        private State(HintEngine engine, PhraseState round) {
+            this.engine = engine;
+            this.round = round;
+            String[] words = round.hidden().split(" ", -1);
+            this.starts = new int[words.length];
+            this.lengths = new int[words.length];
+            this.candidates = new long[words.length][];
+            this.counts = new int[words.length];
+            int start = 0;
+            for (int w = 0; w < words.length; w++) {
+                starts[w] = start;
+                lengths[w] = words[w].length();
+                start += lengths[w] + 1;
+                Bucket b = lengths[w] < engine.buckets.length ? engine.buckets[lengths[w]] : null;
+                candidates[w] = b == null ? new long[0] : b.all();
+                counts[w] = b == null ? 0 : b.size;
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * InMemoryScoreStore.java
+ *
+ * InMemoryScoreStore keeps the scores in a ConcurrentHashMap. Scores survive a player leaving and coming back, but
+ * not a server restart.
+ */
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+public class InMemoryScoreStore implements ScoreStore {
+    private final ConcurrentHashMap<String, Integer> scores = new ConcurrentHashMap<>();
+
+    @Override
+    public int load(String player) {
+        return scores.getOrDefault(player, 0);
+    }
+
+    @Override
+    public void forEach(BiConsumer<String, Integer> action) {
+        scores.forEach(action);
+    }
+
+    @Override
+    public void save(String player, int score) {
+        scores.put(player, score);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * LatencyHistogram.java
+ *
+ * LatencyHistogram records nanosecond latencies into log-linear buckets, the same layout HdrHistogram uses:
+ * every power of two is split into 64 equal sub-buckets, so any recorded value is kept with roughly 1.5% precision
+ * in a fixed 30KB array no matter how many values are recorded. Recording is a single atomic increment, so one
+ * histogram can be shared by many threads, and histograms can be merged to combine per-thread recordings.
+ */
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**************************************************************************
+     * record
+     *
+     * Adds one value to the histogram. Negative values are recorded as zero.
+     **************************************************************************/
+    public void record(long nanos) {
+        long v = Math.max(0, nanos);
+        counts.incrementAndGet(index(v));
+        total.incrementAndGet();
+        sum.addAndGet(v);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    /**************************************************************************
+     * add
+     *
+     * Merges all values recorded by another histogram into this one.
+     **************************************************************************/
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0)
+                counts.addAndGet(i, c);
+        }
+        total.addAndGet(other.total.get());
+        sum.addAndGet(other.sum.get());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    /**************************************************************************
+     * reset
+     *
+     * Clears every recorded value.
+     **************************************************************************/
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0);
+        total.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    public long count() {
+        return total.get();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long n = total.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**************************************************************************
+     * percentile
+     *
+     * Returns the value below which the given percentage (0-100) of the recorded
+     * values fall, rounded to the middle of its bucket. Returns 0 when empty.
+     **************************************************************************/
+    public long percentile(double percent) {
+        long n = total.get();
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(n * percent / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank && i == BUCKETS - 1)
+                return max.get();
+            if (seen >= rank)
+                return Math.min(max.get(), (lowerBound(i) + lowerBound(i + 1) - 1) / 2);
+        }
+        return max.get();
+    }
+
+    /**************************************************************************
+     * summary
+     *
+     * Returns a one line summary of the histogram in microseconds.
+     **************************************************************************/
+    public String summary() {
+        return String.format("n=%d mean=%.2fus p50=%.2fus p99=%.2fus p999=%.2fus max=%.2fus", count(), mean() / 1e3,
+                percentile(50) / 1e3, percentile(99) / 1e3, percentile(99.9) / 1e3, max() / 1e3);
+    }
+
+    static int index(long v) {
+        if (v < SUB_COUNT)
+            return (int) v;
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) (v >>> shift) - SUB_COUNT;
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB_COUNT)
+            return index;
+        int shift = index / SUB_COUNT - 1;
+        return (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * Leaderboard.java
+ *
+ * Leaderboard ranks the total scores of all players the server has seen. The GameHandler fills it with the scores
+ * of the ScoreStore when it starts, and every GameEngine records a player's score when the player joins and whenever
+ * it changes, so the leaderboard always holds the latest score of every player, also after the player has left.
+ *
+ * Scores are counted in a histogram with one counter per score, kept as a Fenwick tree in an AtomicLongArray. A
+ * change of score is two atomic adds on each of about 17 counters, and a rank or a percentile is a sum over the same
+ * number of counters, however many players there are. Every player is also kept in a ConcurrentSkipListSet ordered
+ * by score, best first, which gives the top K in K steps. Nothing takes a lock: the scores of one player only change
+ * on the thread of that player's shard, and readers may see a change of another shard half done, which moves a rank
+ * by at most one for a moment.
+ *
+ * Scores from -65536 to 65535 are counted exactly; scores beyond that share the counter at the end of the range.
+ */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class Leaderboard {
+    private static final int MIN_SCORE = -65536;
+    private static final int MAX_SCORE = 65535;
+    private static final int SIZE = MAX_SCORE - MIN_SCORE + 1;
+
+    // Fenwick tree of the number of players per score, 1-based
+    private final AtomicLongArray tree = new AtomicLongArray(SIZE + 1);
+    private final ConcurrentHashMap<String, Integer> scores = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Entry> ranking = new ConcurrentSkipListSet<>();
+    private final AtomicInteger players = new AtomicInteger();
+
+    /**************************************************************************
+     * record
+     *
+     * Sets the player's total score. Must not be called for the same player
+     * from two threads at once, which the shards guarantee.
+     **************************************************************************/
+    public void record(String player, int score) {
+        Integer old = scores.put(player, score);
+        if (old != null) {
+            if (old == score)
+                return;
+            add(slot(old), -1);
+            ranking.remove(new Entry(player, old));
+        } else {
+            players.incrementAndGet();
+        }
+        add(slot(score), 1);
+        ranking.add(new Entry(player, score));
+    }
+
+    public int players() {
+        return players.get();
+    }
+
+    /**************************************************************************
+     * top
+     *
+     * Returns the standings of the k best players, best first. Players with
+     * the same score share a rank.
+     **************************************************************************/
+    public List<Standing> top(int k) {
+        List<Standing> top = new ArrayList<>(Math.min(k, 1024));
+        int n = players();
+        for (Entry e : ranking) {
+            if (top.size() >= k)
+                break;
+            top.add(standing(e.player, e.score, n));
+        }
+        return top;
+    }
+
+    /**************************************************************************
+     * standing
+     *
+     * Returns the rank and percentile of the player, or null if the player
+     * has no score on the leaderboard.
+     **************************************************************************/
+    public Standing standing(String player) {
+        Integer score = scores.get(player);
+        return score == null ? null : standing(player, score, players());
+    }
+
+    private Standing standing(String player, int score, int n) {
+        long atOrBelow = Math.min(n, prefix(slot(score)));
+        long rank = n - atOrBelow + 1;
+        double percentile = n == 0 ? 100 : atOrBelow * 100.0 / n;
+        return new Standing(player, score, (int) Math.max(1, rank), n, percentile);
+    }
+
+    /**************************************************************************
+     * scoreAt
+     *
+     * Returns the lowest score that the given percent of the players reach or
+     * stay below, so scoreAt(50) is the median and scoreAt(99) is the score
+     * only the best one percent exceed. Returns 0 without players.
+     **************************************************************************/
+    public int scoreAt(double percentile) {
+        int n = players();
+        if (n == 0)
+            return 0;
+        long wanted = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * n));
+
+        // walk down the tree for the last slot whose prefix is still below the wanted count
+        int pos = 0;
+        long below = 0;
+        for (int step = Integer.highestOneBit(SIZE); step > 0; step >>= 1) {
+            int next = pos + step;
+            if (next <= SIZE && below + tree.get(next) < wanted) {
+                pos = next;
+                below += tree.get(next);
+            }
+        }
+        return Math.min(MAX_SCORE, pos + MIN_SCORE);
+    }
+
+    private static int slot(int score) {
+        return Math.min(MAX_SCORE, Math.max(MIN_SCORE, score)) - MIN_SCORE + 1;
+    }
+
+    private void add(int slot, long delta) {
+        for (int i = slot; i <= SIZE; i += i & -i)
+            tree.getAndAdd(i, delta);
+    }
+
+    private long prefix(int slot) {
+        long sum = 0;
+        for (int i = slot; i > 0; i -= i & -i)
+            sum += tree.get(i);
+        return sum;
+    }
+
+    /**************************************************************************
+     * Entry
+     *
+     * A player in the ranking, ordered by score, best first, then by name.
+     **************************************************************************/
+    private static final class Entry implements Comparable<Entry> {
+        final String player;
+        final int score;
+
+        Entry(String player, int score) {
+            this.player = player;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            int c = Integer.compare(o.score, score);
+            return c != 0 ? c : player.compareTo(o.player);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Entry && compareTo((Entry) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return player.hashCode() * 31 + score;
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * LoadGenerator.java
+ *
+ * LoadGenerator is a headless client for capacity testing. It simulates many players against a
+ * PhraseGuessingGameServer, each one registering, then starting rounds and guessing letters until the test ends.
+ * Players are started evenly over the ramp-up time and wait for the think time between calls. At the end it reports
+ * the throughput and, for every remote method, the calls, errors and p50/p99/p999 latency seen by the players.
+ *
+ * With rooms=N the players are spread over N shared rooms instead and play them through joinRoom and roomGuess; a
+ * player that runs out of tries waits for the room's next round, which it learns about from the pushed events. The
+ * report then also counts the room events pushed to the players.
+ *
+ * By default the players run against a GameHandler in the same JVM, so no network or registry is needed. With
+ * host=<name> they look up the server in the RMI registry on that host instead. Every player gets its own thread:
+ * a virtual thread when the JVM has them, a platform thread otherwise.
+ *
+ * Usage: java LoadGenerator [players=1000] [words=3] [tries=2] [duration=30] [rampup=5] [think=0]
+ *                           [strategy=frequency|random] [rooms=0] [host=<rmi host>]
+ * duration and rampup are in seconds, think is in milliseconds.
+ */
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LoadGenerator {
+
+    /** The order in which a player guesses letters. */
+    public enum Strategy {
+        FREQUENCY, RANDOM;
+
+        private static final String FREQUENCY_ORDER = "etaoinshrdlcumwfgypbvkjxqz0123456789'.&";
+
+        char[] letters() {
+            char[] order = FREQUENCY_ORDER.toCharArray();
+            if (this == RANDOM) {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = order.length - 1; i > 0; i--) {
+                    int j = random.nextInt(i + 1);
+                    char c = order[i];
+                    order[i] = order[j];
+                    order[j] = c;
+                }
+            }
+            return order;
+        }
+    }
+
+    private final PhraseGuessingGameServer server;
+    private final GameMetrics metrics = new GameMetrics();
+    private final int words;
+    private final int tries;
+    private final long thinkMillis;
+    private final Strategy strategy;
+    private final RoomWatcher[] rooms;
+    private final LongAdder roomEvents = new LongAdder();
+    private final LongAdder busy = new LongAdder();
+
+    public LoadGenerator(PhraseGuessingGameServer server, int words, int tries, long thinkMillis, Strategy strategy) {
+        this(server, words, tries, thinkMillis, strategy, 0);
+    }
+
+    public LoadGenerator(PhraseGuessingGameServer server, int words, int tries, long thinkMillis, Strategy strategy,
+            int rooms) {
+        this.server = server;
+        this.words = words;
+        this.tries = tries;
+        this.thinkMillis = thinkMillis;
+        this.strategy = strategy;
+        this.rooms = new RoomWatcher[rooms];
+        for (int i = 0; i < rooms; i++)
+            this.rooms[i] = new RoomWatcher();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                System.out.println("Arguments are name=value pairs, see the usage in LoadGenerator.java.");
+                return;
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int players = Integer.parseInt(options.getOrDefault("players", "1000"));
+        int seconds = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int rampup = Integer.parseInt(options.getOrDefault("rampup", "5"));
+        Strategy strategy = Strategy.valueOf(options.getOrDefault("strategy", "frequency").toUpperCase());
+        String host = options.get("host");
+        int rooms = Integer.parseInt(options.getOrDefault("rooms", "0"));
+
+        // thousands of joining players would flood the console of a local server
+        if (System.getProperty("game.log.level") == null)
+            System.setProperty("game.log.level", "WARN");
+        // players without think time call faster than a person, which is what the test is for
+        if (System.getProperty("game.admission.rate") == null)
+            System.setProperty("game.admission.rate", "0");
+
+        GameHandler local = null;
+        PhraseGuessingGameServer server;
+        if (host == null)
+            server = local = new GameHandler();
+        else
+            server = (PhraseGuessingGameServer) Naming.lookup("rmi://" + host + "/PhraseGuessingGameServer");
+
+        LoadGenerator generator = new LoadGenerator(server, Integer.parseInt(options.getOrDefault("words", "3")),
+                Integer.parseInt(options.getOrDefault("tries", "2")),
+                Long.parseLong(options.getOrDefault("think", "0")), strategy, rooms);
+        // a remote server can only call back listeners that are exported
+        if (local == null)
+            for (RoomWatcher watcher : generator.rooms)
+                UnicastRemoteObject.exportObject(watcher, 0);
+        try {
+            generator.run(players, seconds * 1000L, rampup * 1000L);
+        } finally {
+            if (local != null) {
+                UnicastRemoteObject.unexportObject(local, true);
+                local.shutdown();
+            }
+            if (local == null)
+                for (RoomWatcher watcher : generator.rooms)
+                    UnicastRemoteObject.unexportObject(watcher, true);
+        }
+    }
+
+    /**************************************************************************
+     * run
+     *
+     * Starts the players, spread over the ramp-up time, lets them play until
+     * the end of the test and prints the report.
+     **************************************************************************/
+    public void run(int players, long durationMillis, long rampupMillis) throws InterruptedException {
+        String run = Long.toString(System.currentTimeMillis(), 36);
+        long begin = System.currentTimeMillis();
+        long deadline = begin + durationMillis;
+        ExecutorService executor = playerThreads();
+
+        for (int i = 0; i < players; i++) {
+            String name = "load-" + run + "-" + i;
+            long startAt = begin + rampupMillis * i / Math.max(1, players);
+            executor.execute(() -> play(name, startAt, deadline));
+        }
+        executor.shutdown();
+        executor.awaitTermination(durationMillis + rampupMillis + 60_000, TimeUnit.MILLISECONDS);
+
+        double elapsed = (System.currentTimeMillis() - begin) / 1000.0;
+        long calls = 0;
+        long errors = 0;
+        for (GameMetrics.Call c : GameMetrics.Call.values()) {
+            calls += metrics.calls(c);
+            errors += metrics.errors(c);
+        }
+        System.out.printf("%d players, %d words, %d tries per word, %s strategy, %.1fs%n", players, words, tries,
+                strategy.name().toLowerCase(), elapsed);
+        System.out.printf("%,d calls, %,.0f calls/s, %,d errors, %,d of them refused as busy%n", calls,
+                calls / elapsed, errors, busy.sum());
+        if (rooms.length > 0)
+            System.out.printf("%d rooms, %,d room events pushed to the players, %,.0f events/s%n", rooms.length,
+                    roomEvents.sum(), roomEvents.sum() / elapsed);
+        System.out.print(metrics.dump());
+    }
+
+    /**************************************************************************
+     * play
+     *
+     * The life of one simulated player: wait for its turn in the ramp-up,
+     * register, then play rounds until the deadline and end the game.
+     **************************************************************************/
+    private void play(String player, long startAt, long deadline) {
+        try {
+            long wait = startAt - System.currentTimeMillis();
+            if (wait > 0)
+                Thread.sleep(wait);
+
+            if (!timed(GameMetrics.Call.INITIALIZE_PLAYER, () -> server.initializePlayer(player)))
+                return;
+
+            if (rooms.length > 0) {
+                int room = Math.floorMod(player.hashCode(), rooms.length);
+                playRoom(player, "load-room-" + room, rooms[room], deadline);
+            } else {
+                while (System.currentTimeMillis() < deadline)
+                    playRound(player, deadline);
+            }
+
+            timed(GameMetrics.Call.END_GAME, () -> server.endGame(player));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RemoteException | RuntimeException e) {
+            // already counted as an error of the call that failed
+        }
+    }
+
+    private void playRound(String player, long deadline) throws RemoteException, InterruptedException {
+        timed(GameMetrics.Call.START_ROUND, () -> server.startRound(player, words, tries));
+
+        for (char letter : strategy.letters()) {
+            think();
+            if (System.currentTimeMillis() >= deadline)
+                return;
+            if (timed(GameMetrics.Call.REVEAL_LETTER, () -> server.revealLetter(player, letter)).isOver())
+                return;
+        }
+    }
+
+    /**************************************************************************
+     * playRoom
+     *
+     * Plays in a shared room until the deadline. The player guesses letters
+     * in the order of the strategy and starts over when a new round begins;
+     * out of tries or letters, it waits for the next round.
+     **************************************************************************/
+    private void playRoom(String player, String room, RoomWatcher watcher, long deadline)
+            throws RemoteException, InterruptedException {
+        int round = timed(GameMetrics.Call.JOIN_ROOM, () -> server.joinRoom(player, room, words, tries, watcher))
+                .getRound();
+        watcher.saw(round);
+
+        while (System.currentTimeMillis() < deadline) {
+            for (char letter : strategy.letters()) {
+                think();
+                if (System.currentTimeMillis() >= deadline)
+                    break;
+                RoomEvent reply = timed(GameMetrics.Call.ROOM_GUESS,
+                        () -> server.roomGuess(player, room, String.valueOf(letter)));
+                watcher.saw(reply.getRound());
+                if (reply.getRound() != round || reply.getType() == RoomEvent.Type.SOLVED
+                        || reply.getType() == RoomEvent.Type.MISSED && reply.getTries() == 0)
+                    break;
+            }
+            while (watcher.round <= round && System.currentTimeMillis() < deadline)
+                Thread.sleep(1);
+            round = watcher.round;
+        }
+        timed(GameMetrics.Call.LEAVE_ROOM, () -> {
+            server.leaveRoom(player, room);
+            return null;
+        });
+    }
+
+    /** One remote call made by a simulated player. */
+    private interface RemoteCall<T> {
+        T run() throws RemoteException;
+    }
+
+    /**************************************************************************
+     * timed
+     *
+     * Makes the call and records it in the metrics. A call the server refuses
+     * as busy is counted as an error and made again after the wait the server
+     * asked for.
+     **************************************************************************/
+    private <T> T timed(GameMetrics.Call call, RemoteCall<T> remoteCall) throws RemoteException {
+        while (true) {
+            long start = System.nanoTime();
+            boolean failed = true;
+            ServerBusyException refused;
+            try {
+                T result = remoteCall.run();
+                failed = false;
+                return result;
+            } catch (RemoteException e) {
+                refused = ServerBusyException.of(e);
+                if (refused == null)
+                    throw e;
+                busy.increment();
+            } finally {
+                metrics.record(call, System.nanoTime() - start, failed);
+            }
+            try {
+                Thread.sleep(Math.max(1, refused.getRetryAfterMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw refused;
+            }
+        }
+    }
+
+    /**************************************************************************
+     * RoomWatcher
+     *
+     * The listener that all simulated players of one room share. It counts the
+     * events pushed to them and remembers the newest round of the room.
+     **************************************************************************/
+    private class RoomWatcher implements RoomListener {
+        volatile int round;
+
+        @Override
+        public void roomEvents(List<RoomEvent> events) {
+            roomEvents.add(events.size());
+            for (RoomEvent event : events)
+                saw(event.getRound());
+        }
+
+        synchronized void saw(int r) {
+            if (r > round)
+                round = r;
+        }
+    }
+
+    private void think() throws InterruptedException {
+        if (thinkMillis > 0)
+            Thread.sleep(thinkMillis);
+    }
+
+    /**************************************************************************
+     * playerThreads
+     *
+     * Returns an executor that gives every task its own virtual thread when the
+     * JVM supports them (Java 21 and later), or its own platform thread.
+     **************************************************************************/
+    static ExecutorService playerThreads() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
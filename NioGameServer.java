@@ -0,0 +1,393 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * NioGameServer.java
+ *
+ * NioGameServer is a second front end for the GameHandler that runs beside the RMI endpoint. It speaks a plain text
+ * protocol over TCP, one request per line and one reply line per request, in order. Clients may pipeline: they can
+ * send many requests without waiting, and every complete line that has arrived is executed and the replies are
+ * written back together. Connections are spread over one selector thread per core, so many thousands of players
+ * can be served without a thread per connection. A selector thread runs the requests of its connections itself and
+ * waits for the GameHandler's reply, which includes the time the request queues for the player's shard, so one slow
+ * request delays the other connections of that selector; the AdmissionControl of the GameHandler refuses requests
+ * rather than let the queues grow. A connection whose replies pile up because the client does not read them is not
+ * read from until it does.
+ *
+ * Requests                     Replies
+ *   HELLO <name>                 OK | TAKEN
+ *   START <words> <tries> [...]  GAME <tries> <score> <hidden phrase>, optionally with difficulty tokens
+ *   L <letter>                   PLAY <tries> <score> <letter> <pos,pos,...> | WON <score> <phrase>
+ *                                | LOST <score> <phrase>
+ *   P <phrase>                   PLAY <tries> <score> | WON <score> <phrase> | LOST <score> <phrase>
+ *   HINT                         HINT <letter or -> <candidates per word,...>
+ *   TOP <count>                  TOP <rank>:<name>:<score> ...
+ *   RANK                         RANK <rank> <players> <score> <percentile>
+ *   RESTART                      OK
+ *   END                          OK, and the server closes the connection
+ * A request the server refuses before running it is answered with BUSY <RATE_LIMITED or OVERLOADED> <retry millis>
+ * and may be sent again after that time. Any other failure is answered with ERR <message>. Closing the connection
+ * ends the player's game.
+ */
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class NioGameServer implements Runnable {
+    private static final int MAX_LINE = 64 * 1024;
+    // replies waiting to be written beyond which a connection is not read from
+    private static final int MAX_PENDING = 64 * 1024;
+
+    private final GameHandler game;
+    private final ServerSocketChannel server;
+    private final Worker[] workers;
+
+    public NioGameServer(GameHandler game, int port) throws IOException {
+        this(game, port, Runtime.getRuntime().availableProcessors());
+    }
+
+    public NioGameServer(GameHandler game, int port, int threads) throws IOException {
+        this.game = game;
+        this.server = ServerSocketChannel.open();
+        this.server.bind(new InetSocketAddress(port), 1024);
+        this.workers = new Worker[threads];
+        for (int i = 0; i < threads; i++)
+            workers[i] = new Worker();
+    }
+
+    /**************************************************************************
+     * start
+     *
+     * Starts the selector threads and the accepting thread as daemons and
+     * returns right away.
+     **************************************************************************/
+    public void start() {
+        for (int i = 0; i < workers.length; i++) {
+            Thread t = new Thread(workers[i], "nio-game-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        Thread acceptor = new Thread(this, "nio-game-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**************************************************************************
+     * run
+     *
+     * Accepts connections and hands them to the selector threads in turn.
+     **************************************************************************/
+    @Override
+    public void run() {
+        int next = 0;
+        while (server.isOpen()) {
+            try {
+                SocketChannel channel = server.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                workers[next].add(channel);
+                next = (next + 1) % workers.length;
+            } catch (IOException e) {
+                if (server.isOpen())
+                    GameLog.warn("NIO ACCEPT ERROR: " + e.getMessage());
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        server.close();
+        for (Worker worker : workers)
+            worker.selector.close();
+    }
+
+    /**************************************************************************
+     * Connection
+     *
+     * The buffers of one client and the player it registered as.
+     **************************************************************************/
+    private static class Connection {
+        ByteBuffer in = ByteBuffer.allocate(1024);
+        ByteBuffer out = ByteBuffer.allocate(1024);
+        String player;
+        boolean closing;
+    }
+
+    /**************************************************************************
+     * Worker
+     *
+     * One selector thread. It reads whatever its connections sent, executes
+     * every complete line and queues the replies in the connection's output
+     * buffer, which is flushed once per read.
+     **************************************************************************/
+    private class Worker implements Runnable {
+        private final Selector selector;
+        private final ConcurrentLinkedQueue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+
+        Worker() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void add(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (selector.isOpen()) {
+                try {
+                    selector.select();
+                    SocketChannel channel;
+                    while ((channel = pending.poll()) != null)
+                        channel.register(selector, SelectionKey.OP_READ, new Connection());
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        try {
+                            if (key.isReadable())
+                                read(key);
+                            if (key.isValid() && key.isWritable())
+                                flush(key);
+                        } catch (IOException e) {
+                            disconnect(key);
+                        }
+                    }
+                } catch (ClosedChannelException e) {
+                    // a channel closed before it could be registered
+                } catch (IOException e) {
+                    GameLog.warn("NIO SELECT ERROR: " + e.getMessage());
+                } catch (java.nio.channels.ClosedSelectorException e) {
+                    return;
+                }
+            }
+        }
+
+        private void read(SelectionKey key) throws IOException {
+            SocketChannel channel = (SocketChannel) key.channel();
+            Connection c = (Connection) key.attachment();
+
+            if (!c.in.hasRemaining()) {
+                if (c.in.capacity() >= MAX_LINE) {
+                    disconnect(key);
+                    return;
+                }
+                c.in = grow(c.in, c.in.capacity() * 2);
+            }
+            if (channel.read(c.in) < 0) {
+                disconnect(key);
+                return;
+            }
+
+            runLines(c);
+            flush(key);
+        }
+
+        /**************************************************************************
+         * runLines
+         *
+         * Executes the complete lines that have arrived and keeps a partial line
+         * for the next read. Stops early once MAX_PENDING bytes of replies wait
+         * to be written; the lines left over run when the client has read them.
+         **************************************************************************/
+        private void runLines(Connection c) {
+            c.in.flip();
+            int start = c.in.position();
+            for (int i = start; i < c.in.limit() && !c.closing && c.out.position() < MAX_PENDING; i++) {
+                if (c.in.get(i) == '\n') {
+                    int end = i > start && c.in.get(i - 1) == '\r' ? i - 1 : i;
+                    String line = new String(c.in.array(), start, end - start, StandardCharsets.UTF_8);
+                    reply(c, execute(c, line));
+                    start = i + 1;
+                }
+            }
+            c.in.position(start);
+            c.in.compact();
+        }
+
+        /**************************************************************************
+         * flush
+         *
+         * Writes what the socket takes of the pending replies. Lines held back
+         * because too many replies were waiting run once the replies fall below
+         * MAX_PENDING again. Until then the connection is not read from, so a
+         * client that does not read its replies only fills its own buffers.
+         **************************************************************************/
+        private void flush(SelectionKey key) throws IOException {
+            Connection c = (Connection) key.attachment();
+            SocketChannel channel = (SocketChannel) key.channel();
+            write(c, channel);
+            if (c.out.position() < MAX_PENDING && c.in.position() > 0 && !c.closing) {
+                runLines(c);
+                write(c, channel);
+            }
+            boolean done = c.out.position() == 0;
+
+            if (done && c.closing)
+                disconnect(key);
+            else if (key.isValid())
+                key.interestOps(done ? SelectionKey.OP_READ
+                        : c.out.position() >= MAX_PENDING ? SelectionKey.OP_WRITE
+                                : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        private void write(Connection c, SocketChannel channel) throws IOException {
+            c.out.flip();
+            channel.write(c.out);
+            c.out.compact();
+        }
+
+        private void disconnect(SelectionKey key) {
+            Connection c = (Connection) key.attachment();
+            key.cancel();
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                // already closed
+            }
+            if (c.player != null) {
+                try {
+                    game.endGame(c.player);
+                } catch (RemoteException e) {
+                    // the player is gone either way
+                }
+                c.player = null;
+            }
+        }
+    }
+
+    /**************************************************************************
+     * execute
+     *
+     * Runs one request line against the GameHandler and returns the reply line.
+     **************************************************************************/
+    private String execute(Connection c, String line) {
+        int space = line.indexOf(' ');
+        String command = space < 0 ? line : line.substring(0, space);
+        String argument = space < 0 ? "" : line.substring(space + 1);
+
+        try {
+            if (command.equals("HELLO")) {
+                if (c.player != null)
+                    return "ERR already registered as " + c.player;
+                if (argument.isEmpty())
+                    return "ERR missing name";
+                if (!game.initializePlayer(argument))
+                    return "TAKEN";
+                c.player = argument;
+                return "OK";
+            }
+            if (c.player == null)
+                return "ERR send HELLO <name> first";
+
+            switch (command) {
+            case "START": {
+                String[] args = argument.split(" ");
+                if (args.length < 2)
+                    return "ERR usage: START <words> <tries> [length=a-b] [distinct=a-b] [letters]";
+                GuessResult result = game.startRound(c.player, Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+                        Difficulty.parse(args, 2));
+                return "GAME " + result.getTries() + " " + result.getScore() + " " + result.getPhrase();
+            }
+            case "L":
+                if (argument.length() != 1)
+                    return "ERR usage: L <letter>";
+                return format(game.revealLetter(c.player, argument.charAt(0)));
+            case "P":
+                return format(game.solvePhrase(c.player, argument));
+            case "HINT": {
+                Hint hint = game.hint(c.player);
+                StringBuilder sb = new StringBuilder("HINT ").append(hint.getLetter() == '\0' ? '-' : hint.getLetter());
+                for (int i = 0; i < hint.getCounts().length; i++)
+                    sb.append(i == 0 ? ' ' : ',').append(hint.getCounts()[i]);
+                return sb.toString();
+            }
+            case "TOP": {
+                StringBuilder sb = new StringBuilder("TOP");
+                for (Standing s : game.topScores(Integer.parseInt(argument)))
+                    sb.append(' ').append(s.getRank()).append(':').append(s.getPlayer()).append(':')
+                            .append(s.getScore());
+                return sb.toString();
+            }
+            case "RANK": {
+                Standing s = game.standing(c.player);
+                if (s == null)
+                    return "ERR no score yet";
+                return "RANK " + s.getRank() + " " + s.getPlayers() + " " + s.getScore() + " "
+                        + String.format("%.1f", s.getPercentile());
+            }
+            case "RESTART":
+                game.restartGame(c.player);
+                return "OK";
+            case "END":
+                game.endGame(c.player);
+                c.player = null;
+                c.closing = true;
+                return "OK";
+            default:
+                return "ERR unknown command " + command;
+            }
+        } catch (ServerBusyException e) {
+            return "BUSY " + e.getReason() + " " + e.getRetryAfterMillis();
+        } catch (NumberFormatException e) {
+            return "ERR not a number: " + e.getMessage();
+        } catch (RemoteException | RuntimeException e) {
+            return "ERR " + e.getMessage();
+        }
+    }
+
+    /**************************************************************************
+     * format
+     *
+     * Writes a GuessResult as a reply line. A guess that is still in progress
+     * only lists the positions it revealed.
+     **************************************************************************/
+    static String format(GuessResult result) {
+        switch (result.getStatus()) {
+        case WON:
+            return "WON " + result.getScore() + " " + result.getPhrase();
+        case LOST:
+            return "LOST " + result.getScore() + " " + result.getPhrase();
+        default:
+            int[] revealed = result.getRevealed();
+            if (revealed.length == 0)
+                return "PLAY " + result.getTries() + " " + result.getScore();
+            StringBuilder sb = new StringBuilder(16 + revealed.length * 4);
+            sb.append("PLAY ").append(result.getTries()).append(' ').append(result.getScore()).append(' ')
+                    .append(result.getLetter()).append(' ');
+            for (int i = 0; i < revealed.length; i++) {
+                if (i > 0)
+                    sb.append(',');
+                sb.append(revealed[i]);
+            }
+            return sb.toString();
+        }
+    }
+
+    private static void reply(Connection c, String line) {
+        byte[] bytes = (line + '\n').getBytes(StandardCharsets.UTF_8);
+        if (c.out.remaining() < bytes.length)
+            c.out = grow(c.out, Math.max(c.out.capacity() * 2, c.out.position() + bytes.length));
+        c.out.put(bytes);
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+        ByteBuffer bigger = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * OffHeapSessionStore.java
+ *
+ * OffHeapSessionStore keeps the sessions of idle players outside the Java heap, so that millions of players who
+ * registered and then went quiet cost neither heap nor garbage collection time. The SessionRegistry parks a session
+ * here once it has been idle for a while and takes it back into its map on the player's next call.
+ *
+ * Every session is one fixed size slot of 128 bytes in direct ByteBuffers, which are allocated in chunks of 8192
+ * slots as the store fills. A slot holds the total score, the tries left, the number of phrases the player has had,
+ * the time of the last call, the bitset of the letters guessed in the round and the phrase of the round as the
+ * indices of its words in the Dictionary it was drawn from; the masked phrase is rebuilt from the phrase and the
+ * guessed letters. The username is kept in the slot as well, and is the only copy the store has of it: the index
+ * from names to slots is an open addressing table of slot numbers in an int array, which compares the hash and the
+ * bytes of the name in the slot. A session that does not fit a slot (a round of more than 11 words, a word the
+ * current Dictionary does not have, a name longer than 32 bytes) is not parked and stays on the heap.
+ *
+ * The store is guarded by its own monitor.
+ */
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+public class OffHeapSessionStore {
+    static final int SLOT = 128;
+    static final int MAX_WORDS = 11;
+    static final int MAX_NAME = 32;
+    private static final int CHUNK_SLOTS = 8192;
+
+    // the layout of a slot
+    private static final int DICTIONARY = 0;
+    private static final int SCORE = 4;
+    private static final int TRIES = 8;
+    private static final int HASH = 12;
+    private static final int PHRASES = 16;
+    private static final int LAST_ACTIVE = 24;
+    private static final int GUESSED = 32;
+    private static final int WORD_COUNT = 48;
+    private static final int NAME_LENGTH = 50;
+    private static final int WORDS = 52;
+    private static final int NAME = 96;
+
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+    private int[] free = new int[0];
+    private int freeCount;
+    private int slots;
+    private int[] index = new int[1024];
+    private int size;
+    // the dictionaries that parked phrases refer to, and how many phrases refer to each
+    private final List<Dictionary> dictionaries = new ArrayList<>();
+    private final List<Integer> uses = new ArrayList<>();
+    private final int[] words = new int[MAX_WORDS];
+
+    /**************************************************************************
+     * park
+     *
+     * Writes the session of the player into a free slot. Returns false, and
+     * stores nothing, if the session does not fit a slot or the player is
+     * already parked. Must be called with the lock of the player, by the
+     * thread that runs the player's calls.
+     **************************************************************************/
+    public synchronized boolean park(Player p, Dictionary dictionary) {
+        byte[] name = p.name.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_NAME || find(p.name) >= 0)
+            return false;
+        int count = 0;
+        PhraseState round = p.round;
+        if (round != PhraseState.EMPTY) {
+            String phrase = round.phrase();
+            int start = 0;
+            while (start <= phrase.length()) {
+                int end = phrase.indexOf(' ', start);
+                if (end < 0)
+                    end = phrase.length();
+                if (count == MAX_WORDS)
+                    return false;
+                int word = dictionary.find(phrase.substring(start, end));
+                if (word < 0)
+                    return false;
+                words[count++] = word;
+                start = end + 1;
+            }
+        }
+
+        int slot = allocate();
+        ByteBuffer chunk = chunks[slot / CHUNK_SLOTS];
+        int at = (slot % CHUNK_SLOTS) * SLOT;
+        chunk.putInt(at + DICTIONARY, count == 0 ? -1 : dictionary(dictionary));
+        chunk.putInt(at + SCORE, p.totalScore);
+        chunk.putInt(at + TRIES, p.numberOfTries);
+        chunk.putInt(at + HASH, p.name.hashCode());
+        chunk.putLong(at + PHRASES, p.phrases.get());
+        chunk.putLong(at + LAST_ACTIVE, p.lastActive());
+        for (int i = 0; i < 2; i++) {
+            long bits = 0;
+            for (int c = 0; c < 64; c++)
+                if (round.wasGuessed((char) (i * 64 + c)))
+                    bits |= 1L << c;
+            chunk.putLong(at + GUESSED + 8 * i, bits);
+        }
+        chunk.putShort(at + WORD_COUNT, (short) count);
+        chunk.putShort(at + NAME_LENGTH, (short) name.length);
+        for (int i = 0; i < count; i++)
+            chunk.putInt(at + WORDS + 4 * i, words[i]);
+        chunk.put(at + NAME, name);
+        insert(slot, p.name.hashCode());
+        return true;
+    }
+
+    /**************************************************************************
+     * take
+     *
+     * Removes the parked session of the player and returns it as a Player, or
+     * returns null if the player is not parked here.
+     **************************************************************************/
+    public synchronized Player take(String player) {
+        int position = find(player);
+        if (position < 0)
+            return null;
+        int slot = index[position] - 1;
+        Player p = read(slot, player);
+        delete(position);
+        release(slot);
+        return p;
+    }
+
+    public synchronized boolean contains(String player) {
+        return find(player) >= 0;
+    }
+
+    /**************************************************************************
+     * evictIdle
+     *
+     * Removes every parked session whose last call was before the cutoff,
+     * passing each one to onEvict as a Player. Returns the number removed.
+     **************************************************************************/
+    public synchronized int evictIdle(long cutoff, Consumer<Player> onEvict) {
+        int evicted = 0;
+        for (int position = 0; position < index.length; position++) {
+            // deleting shifts a later entry into this position, which is then looked at again
+            while (index[position] != 0) {
+                int slot = index[position] - 1;
+                ByteBuffer chunk = chunks[slot / CHUNK_SLOTS];
+                int at = (slot % CHUNK_SLOTS) * SLOT;
+                if (chunk.getLong(at + LAST_ACTIVE) >= cutoff)
+                    break;
+                byte[] name = new byte[chunk.getShort(at + NAME_LENGTH)];
+                chunk.get(at + NAME, name);
+                Player p = read(slot, new String(name, StandardCharsets.UTF_8));
+                delete(position);
+                release(slot);
+                evicted++;
+                onEvict.accept(p);
+            }
+        }
+        return evicted;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /** The bytes of direct memory the slots take. */
+    public synchronized long bytes() {
+        return (long) chunks.length * CHUNK_SLOTS * SLOT;
+    }
+
+    /**************************************************************************
+     * read
+     *
+     * Turns a slot back into a Player. The round is rebuilt from its words
+     * and revealed by guessing the letters that were guessed before.
+     **************************************************************************/
+    private Player read(int slot, String name) {
+        ByteBuffer chunk = chunks[slot / CHUNK_SLOTS];
+        int at = (slot % CHUNK_SLOTS) * SLOT;
+        Player p = new Player(name);
+        p.totalScore = chunk.getInt(at + SCORE);
+        p.numberOfTries = chunk.getInt(at + TRIES);
+        p.phrases.set(chunk.getLong(at + PHRASES));
+        int count = chunk.getShort(at + WORD_COUNT);
+        if (count > 0) {
+            int id = chunk.getInt(at + DICTIONARY);
+            Dictionary dictionary = dictionaries.get(id);
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                if (i > 0)
+                    sb.append(' ');
+                dictionary.appendTo(chunk.getInt(at + WORDS + 4 * i), sb);
+            }
+            p.round = new PhraseState(sb.toString());
+            for (int i = 0; i < 2; i++)
+                for (long bits = chunk.getLong(at + GUESSED + 8 * i); bits != 0; bits &= bits - 1)
+                    p.round.reveal((char) (i * 64 + Long.numberOfTrailingZeros(bits)));
+            forget(id);
+        }
+        return p;
+    }
+
+    private int dictionary(Dictionary dictionary) {
+        for (int id = 0; id < dictionaries.size(); id++) {
+            if (dictionaries.get(id) == dictionary) {
+                uses.set(id, uses.get(id) + 1);
+                return id;
+            }
+        }
+        int id = dictionaries.indexOf(null);
+        if (id < 0) {
+            id = dictionaries.size();
+            dictionaries.add(dictionary);
+            uses.add(1);
+        } else {
+            dictionaries.set(id, dictionary);
+            uses.set(id, 1);
+        }
+        return id;
+    }
+
+    // a dictionary no parked phrase refers to any more is let go, so a reloaded one can be collected
+    private void forget(int id) {
+        int left = uses.get(id) - 1;
+        uses.set(id, left);
+        if (left == 0)
+            dictionaries.set(id, null);
+    }
+
+    private int allocate() {
+        if (freeCount > 0)
+            return free[--freeCount];
+        if (slots == chunks.length * CHUNK_SLOTS) {
+            chunks = Arrays.copyOf(chunks, chunks.length + 1);
+            chunks[chunks.length - 1] = ByteBuffer.allocateDirect(CHUNK_SLOTS * SLOT);
+        }
+        return slots++;
+    }
+
+    private void release(int slot) {
+        if (freeCount == free.length)
+            free = Arrays.copyOf(free, Math.max(64, free.length * 2));
+        free[freeCount++] = slot;
+    }
+
+    /**************************************************************************
+     * find
+     *
+     * Returns the position of the player in the index, or -1. Entries are
+     * compared by the hash kept in the slot first, then by the name bytes.
+     **************************************************************************/
+    private int find(String player) {
+        int hash = player.hashCode();
+        int mask = index.length - 1;
+        byte[] name = null;
+        for (int position = spread(hash) & mask; index[position] != 0; position = (position + 1) & mask) {
+            int slot = index[position] - 1;
+            ByteBuffer chunk = chunks[slot / CHUNK_SLOTS];
+            int at = (slot % CHUNK_SLOTS) * SLOT;
+            if (chunk.getInt(at + HASH) != hash)
+                continue;
+            if (name == null)
+                name = player.getBytes(StandardCharsets.UTF_8);
+            if (chunk.getShort(at + NAME_LENGTH) == name.length
+                    && chunk.slice(at + NAME, name.length).equals(ByteBuffer.wrap(name)))
+                return position;
+        }
+        return -1;
+    }
+
+    private void insert(int slot, int hash) {
+        if (++size * 2 > index.length)
+            rehash(index.length * 2);
+        int mask = index.length - 1;
+        int position = spread(hash) & mask;
+        while (index[position] != 0)
+            position = (position + 1) & mask;
+        index[position] = slot + 1;
+    }
+
+    /**************************************************************************
+     * delete
+     *
+     * Removes the entry at the given position of the index and moves later
+     * entries of the same probe run back, so lookups need no tombstones.
+     **************************************************************************/
+    private void delete(int position) {
+        size--;
+        int mask = index.length - 1;
+        int hole = position;
+        for (int next = (hole + 1) & mask; index[next] != 0; next = (next + 1) & mask) {
+            int home = spread(hashOf(index[next] - 1)) & mask;
+            // the entry may move into the hole if the hole lies between its home and where it is now
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                index[hole] = index[next];
+                hole = next;
+            }
+        }
+        index[hole] = 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] old = index;
+        index = new int[capacity];
+        int mask = capacity - 1;
+        for (int entry : old) {
+            if (entry == 0)
+                continue;
+            int position = spread(hashOf(entry - 1)) & mask;
+            while (index[position] != 0)
+                position = (position + 1) & mask;
+            index[position] = entry;
+        }
+    }
+
+    private int hashOf(int slot) {
+        return chunks[slot / CHUNK_SLOTS].getInt((slot % CHUNK_SLOTS) * SLOT + HASH);
+    }
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * PhraseGenerator.java
+ *
+ * PhraseGenerator builds the random phrases of the game from the Dictionary. Normally the words are drawn with the
+ * calling thread's ThreadLocalRandom, so phrase generation shares no state between threads. For reproducible load
+ * tests a seed can be set with the game.seed system property: every phrase is then drawn from a SplittableRandom
+ * seeded from the seed, the player's name and the number of phrases generated for that player so far, so a
+ * replayed run gives every player the same phrases no matter how its threads are scheduled.
+ */
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
+public class PhraseGenerator {
+    private final boolean seeded;
+    private final long seed;
+
+    private PhraseGenerator(boolean seeded, long seed) {
+        this.seeded = seeded;
+        this.seed = seed;
+    }
+
+    public static PhraseGenerator random() {
+        return new PhraseGenerator(false, 0);
+    }
+
+    public static PhraseGenerator seeded(long seed) {
+        return new PhraseGenerator(true, seed);
+    }
+
+    /**************************************************************************
+     * fromSystemProperties
+     *
+     * Returns a seeded generator if the game.seed system property is set, a
+     * random one otherwise.
+     **************************************************************************/
+    public static PhraseGenerator fromSystemProperties() {
+        String seed = System.getProperty("game.seed");
+        return seed == null ? random() : seeded(Long.parseLong(seed));
+    }
+
+    public boolean isSeeded() {
+        return seeded;
+    }
+
+    /**************************************************************************
+     * generate
+     *
+     * Returns a phrase of the given number of words for the player. The
+     * sequence number tells apart the phrases of one player in seeded mode.
+     **************************************************************************/
+    public String generate(Dictionary dictionary, int numberOfWords, String player, long sequence) {
+        return generate(dictionary, null, numberOfWords, player, sequence);
+    }
+
+    /**************************************************************************
+     * generate
+     *
+     * Same, but draws only the words of the given selection of the dictionary's
+     * index; a null selection draws from all words.
+     **************************************************************************/
+    public String generate(Dictionary dictionary, DictionaryIndex.Selection selection, int numberOfWords,
+            String player, long sequence) {
+        RandomGenerator random = ThreadLocalRandom.current();
+        if (seeded)
+            random = new SplittableRandom(mix(seed ^ mix(player.hashCode() ^ mix(sequence))));
+        return phrase(dictionary, selection, numberOfWords, random);
+    }
+
+    /**************************************************************************
+     * phrase
+     *
+     * Appends the given number of randomly chosen words, separated by single
+     * spaces, to a builder sized for the average word length of the dictionary.
+     **************************************************************************/
+    public static String phrase(Dictionary dictionary, int numberOfWords, RandomGenerator random) {
+        return phrase(dictionary, null, numberOfWords, random);
+    }
+
+    public static String phrase(Dictionary dictionary, DictionaryIndex.Selection selection, int numberOfWords,
+            RandomGenerator random) {
+        int size = selection == null ? dictionary.size() : selection.size();
+        if (size == 0 || numberOfWords <= 0)
+            return "";
+
+        StringBuilder sb = new StringBuilder(numberOfWords * (dictionary.averageLength() + 1));
+        for (int i = 0; i < numberOfWords; i++) {
+            if (i > 0)
+                sb.append(' ');
+            dictionary.appendTo(selection == null ? random.nextInt(size) : selection.sample(random), sb);
+        }
+        return sb.toString();
+    }
+
+    // the finalizer of SplitMix64, spreads nearby seeds over the whole range
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
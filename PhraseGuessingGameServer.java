@@ -4,9 +4,18 @@
  * PhraseGuessingGameServer.java
  *
  * This is the remote interface that declares a set of remote methods that will be accessed by the Client.
+ * The first methods reply with a human readable String holding the whole hidden phrase. startRound, revealLetter
+ * and solvePhrase are the second version of the API: they reply with a GuessResult that only carries what changed,
+ * which keeps replies small and cheap on long phrases. guessBatch applies several letter or phrase guesses in one
+ * call, atomically, and stops at the guess that ends the round. joinRoom, roomGuess and leaveRoom play in a shared
+ * room, where many players guess the same phrase and the server pushes every reveal to the RoomListener of each
+ * member. topScores, standing and scoresAt read the leaderboard of all players. hint suggests the next letter of
+ * the player's round and lists the dictionary words that still fit. The startRound that takes a Difficulty only
+ * draws the words of the phrase from the matching part of the dictionary.
  */
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 public interface PhraseGuessingGameServer extends Remote {
     public String startGame(String player, String[] clientMessage) throws RemoteException;
@@ -20,4 +29,30 @@ public interface PhraseGuessingGameServer extends Remote {
     public String restartGame(String player) throws RemoteException;
 
     public boolean initializePlayer(String player) throws RemoteException;
+
+    public GuessResult startRound(String player, int numberOfWords, int attemptsPerWord) throws RemoteException;
+
+    public GuessResult startRound(String player, int numberOfWords, int attemptsPerWord, Difficulty difficulty)
+            throws RemoteException;
+
+    public GuessResult revealLetter(String player, char letter) throws RemoteException;
+
+    public GuessResult solvePhrase(String player, String phrase) throws RemoteException;
+
+    public Hint hint(String player) throws RemoteException;
+
+    public List<GuessResult> guessBatch(String player, List<String> guesses) throws RemoteException;
+
+    public RoomEvent joinRoom(String player, String room, int numberOfWords, int attemptsPerWord,
+            RoomListener listener) throws RemoteException;
+
+    public RoomEvent roomGuess(String player, String room, String guess) throws RemoteException;
+
+    public void leaveRoom(String player, String room) throws RemoteException;
+
+    public List<Standing> topScores(int count) throws RemoteException;
+
+    public Standing standing(String player) throws RemoteException;
+
+    public int[] scoresAt(double[] percentiles) throws RemoteException;
 }
\ No newline at end of file
@@ -0,0 +1,182 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * PhrasePool.java
+ *
+ * PhrasePool keeps phrases ready for the next rounds, so starting a round does not have to draw the words, build the
+ * phrase and index its letters while the player waits. The ready phrases are kept as fresh PhraseStates, which
+ * already hold the masked phrase and the position index, in one bucket per number of words. A background thread
+ * keeps every bucket topped up. Taking a phrase is a poll of the bucket's queue; when the bucket is empty the caller
+ * generates the phrase itself, as before, and counts a miss.
+ *
+ * Buckets are created the first time a number of words is asked for, up to game.pool.buckets of them (32 by default)
+ * and for phrases of up to game.pool.maxWords words (1000 by default). Each bucket holds game.pool.size phrases (32
+ * by default), fewer for long phrases so that a bucket stays around game.pool.bucketKB kilobytes of heap (1024 by
+ * default), as estimated by PhraseState.bytes. A bucket nothing was taken from for a minute is dropped, which makes
+ * room for another number of words. The pool counts hits, misses and the refill lag: the time from the first take
+ * out of a full bucket until the bucket is full again.
+ *
+ * When the DictionaryManager swaps in a new dictionary the ready phrases are thrown away and the buckets are refilled
+ * from the new words.
+ *
+ * A pool would break the reproducible phrases of a seeded PhraseGenerator, so the GameHandler does not use one when
+ * game.seed is set.
+ */
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+public class PhrasePool {
+    private static final long IDLE_NANOS = 100_000_000L;
+    private static final long UNUSED_NANOS = 60_000_000_000L;
+
+    private final DictionaryManager dictionary;
+    private final int size;
+    private final int maxWords;
+    private final int maxBuckets;
+    private final long bucketBytes;
+    private final ConcurrentHashMap<Integer, Bucket> buckets = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LatencyHistogram refillLag = new LatencyHistogram();
+    private final Thread refiller;
+    private volatile boolean running = true;
+
+    public PhrasePool(DictionaryManager dictionary) {
+        this(dictionary, Integer.getInteger("game.pool.size", 32), Integer.getInteger("game.pool.maxWords", 1000),
+                Integer.getInteger("game.pool.buckets", 32), Integer.getInteger("game.pool.bucketKB", 1024) * 1024L);
+    }
+
+    public PhrasePool(DictionaryManager dictionary, int size, int maxWords, int maxBuckets, long bucketBytes) {
+        this.dictionary = dictionary;
+        this.size = size;
+        this.maxWords = maxWords;
+        this.maxBuckets = maxBuckets;
+        this.bucketBytes = bucketBytes;
+        this.refiller = new Thread(this::refill, "phrase-pool");
+        refiller.setDaemon(true);
+        refiller.setPriority(Thread.MIN_PRIORITY);
+        refiller.start();
+        dictionary.onSwap(d -> clear());
+    }
+
+    /**************************************************************************
+     * take
+     *
+     * Returns a ready phrase of the given number of words, or null if there is
+     * none and the caller has to generate it. Never blocks.
+     **************************************************************************/
+    public PhraseState take(int numberOfWords) {
+        Bucket bucket = buckets.get(numberOfWords);
+        if (bucket == null) {
+            misses.increment();
+            if (numberOfWords > 0 && numberOfWords <= maxWords && buckets.size() < maxBuckets) {
+                buckets.computeIfAbsent(numberOfWords, Bucket::new);
+                LockSupport.unpark(refiller);
+            }
+            return null;
+        }
+
+        bucket.takenAt = System.nanoTime();
+        PhraseState phrase = bucket.ready.poll();
+        if (phrase == null)
+            misses.increment();
+        else
+            hits.increment();
+        if (bucket.emptiedAt.get() == 0 && bucket.emptiedAt.compareAndSet(0, System.nanoTime()))
+            LockSupport.unpark(refiller);
+        return phrase;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**************************************************************************
+     * ready
+     *
+     * Returns the number of phrases ready in all buckets.
+     **************************************************************************/
+    public long ready() {
+        long ready = 0;
+        for (Bucket bucket : buckets.values())
+            ready += bucket.ready.size();
+        return ready;
+    }
+
+    /**************************************************************************
+     * clear
+     *
+     * Throws away the ready phrases and wakes the refiller, which draws the
+     * new ones from the current dictionary.
+     **************************************************************************/
+    public void clear() {
+        for (Bucket bucket : buckets.values()) {
+            bucket.ready.clear();
+            bucket.emptiedAt.compareAndSet(0, System.nanoTime());
+        }
+        LockSupport.unpark(refiller);
+    }
+
+    public LatencyHistogram refillLag() {
+        return refillLag;
+    }
+
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(refiller);
+    }
+
+    /**************************************************************************
+     * refill
+     *
+     * The background thread. Drops the buckets nothing was taken from for a
+     * minute and tops up every other bucket that is not full, then sleeps
+     * until a take empties a bucket or, at the latest, for 100ms.
+     **************************************************************************/
+    private void refill() {
+        while (running) {
+            for (Bucket bucket : buckets.values()) {
+                if (System.nanoTime() - bucket.takenAt > UNUSED_NANOS) {
+                    buckets.remove(bucket.numberOfWords, bucket);
+                    continue;
+                }
+                while (running && bucket.ready.remainingCapacity() > 0) {
+                    String phrase = PhraseGenerator.phrase(dictionary.current(), bucket.numberOfWords,
+                            ThreadLocalRandom.current());
+                    bucket.ready.offer(new PhraseState(phrase));
+                }
+                long emptiedAt = bucket.emptiedAt.getAndSet(0);
+                if (emptiedAt != 0)
+                    refillLag.record(System.nanoTime() - emptiedAt);
+            }
+            LockSupport.parkNanos(this, IDLE_NANOS);
+        }
+    }
+
+    /**************************************************************************
+     * Bucket
+     *
+     * The ready phrases of one number of words, when a take first left the
+     * bucket short of full, and when the last take was.
+     **************************************************************************/
+    private class Bucket {
+        final int numberOfWords;
+        final ArrayBlockingQueue<PhraseState> ready;
+        final AtomicLong emptiedAt = new AtomicLong();
+        volatile long takenAt = System.nanoTime();
+
+        Bucket(int numberOfWords) {
+            this.numberOfWords = numberOfWords;
+            long perPhrase = PhraseState.bytes(numberOfWords * (dictionary.current().averageLength() + 1));
+            this.ready = new ArrayBlockingQueue<>((int) Math.max(2, Math.min(size, bucketBytes / perPhrase)));
+        }
+    }
+}
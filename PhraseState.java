@@ -0,0 +1,142 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * PhraseState.java
+ *
+ * PhraseState holds the phrase of one round together with the part of it the player has revealed so far. When the
+ * round starts it indexes the positions of every character of the phrase once, grouped by character, so a guess
+ * only visits the positions of the guessed letter and reveals them in place in a char array. It also counts the
+ * letters that are still hidden, which makes checking for a win a single comparison. Guessing allocates nothing;
+ * only hidden() creates a String when the masked phrase has to be sent to the client. The characters below 128 that
+ * were guessed, right or wrong, are kept in a bitset for the HintEngine.
+ */
+import java.util.Arrays;
+
+public class PhraseState {
+    /** Phrase used while a player has no round in progress. It never changes, so it can be shared. */
+    public static final PhraseState EMPTY = new PhraseState("");
+
+    // characters below ALPHABET get their own group; all others share the last group
+    private static final int ALPHABET = 128;
+
+    private final String phrase;
+    private final char[] secret;
+    private final char[] hidden;
+    private final int[] groupStart = new int[ALPHABET + 2];
+    private final int[] positions;
+    private final int[] newlyRevealed;
+    private int newlyRevealedCount;
+    private int unrevealed;
+    private final long[] guessed = new long[ALPHABET / 64];
+
+    public PhraseState(String phrase) {
+        this.phrase = phrase;
+        this.secret = phrase.toCharArray();
+        this.hidden = new char[secret.length];
+        this.positions = new int[secret.length];
+        this.newlyRevealed = new int[secret.length];
+
+        // counting sort of the positions by character
+        for (int i = 0; i < secret.length; i++) {
+            char c = secret[i];
+            groupStart[group(c) + 2]++;
+            if (c == ' ') {
+                hidden[i] = ' ';
+            } else {
+                hidden[i] = '-';
+                unrevealed++;
+            }
+        }
+        for (int g = 2; g < groupStart.length; g++)
+            groupStart[g] += groupStart[g - 1];
+        for (int i = 0; i < secret.length; i++)
+            positions[groupStart[group(secret[i]) + 1]++] = i;
+    }
+
+    /**************************************************************************
+     * bytes
+     *
+     * Estimates the heap taken by a fresh PhraseState of a phrase of the given
+     * length: the String, the two char arrays and the two int arrays take 13
+     * bytes per character, the letter index and the object headers about 700.
+     **************************************************************************/
+    public static long bytes(int length) {
+        return 700 + 13L * length;
+    }
+
+    /**************************************************************************
+     * reveal
+     *
+     * Reveals every occurrence of the guessed character in the hidden phrase.
+     * Returns how many times the character occurs in the phrase, so a result of
+     * zero means the guess was wrong. Guessing a character that was already
+     * revealed counts as correct, the same as it always has.
+     **************************************************************************/
+    public int reveal(char guess) {
+        int g = group(guess);
+        int matches = 0;
+        // EMPTY is shared, so it does not record guesses
+        if (guess < ALPHABET && secret.length > 0)
+            guessed[guess >>> 6] |= 1L << guess;
+        newlyRevealedCount = 0;
+
+        for (int i = groupStart[g]; i < groupStart[g + 1]; i++) {
+            int pos = positions[i];
+            if (secret[pos] == guess) {
+                matches++;
+                if (hidden[pos] != guess) {
+                    hidden[pos] = guess;
+                    newlyRevealed[newlyRevealedCount++] = pos;
+                    unrevealed--;
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**************************************************************************
+     * lastRevealed
+     *
+     * Returns the positions, in ascending order, that the last call to reveal
+     * uncovered. Letters that were already visible are not included.
+     **************************************************************************/
+    public int[] lastRevealed() {
+        return Arrays.copyOf(newlyRevealed, newlyRevealedCount);
+    }
+
+    /**************************************************************************
+     * isSolved
+     *
+     * Returns true once every letter of a non-empty phrase has been revealed.
+     **************************************************************************/
+    public boolean isSolved() {
+        return unrevealed == 0 && secret.length > 0;
+    }
+
+    /** Returns true if the character, which must be below 128, has been guessed in this round. */
+    public boolean wasGuessed(char c) {
+        return (guessed[c >>> 6] & (1L << c)) != 0;
+    }
+
+    public int unrevealed() {
+        return unrevealed;
+    }
+
+    public String phrase() {
+        return phrase;
+    }
+
+    /**************************************************************************
+     * hidden
+     *
+     * Returns the phrase as the player currently sees it: revealed letters,
+     * spaces, and a '-' for every letter that is still hidden.
+     **************************************************************************/
+    public String hidden() {
+        return new String(hidden);
+    }
+
+    private static int group(char c) {
+        return c < ALPHABET ? c : ALPHABET;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * Player.java
+ *
+ * Player holds the per-session state of one client: the phrase of the current round with the letters revealed so
+ * far (a PhraseState), the number of tries left and the total score. Each Player is its own monitor, so the
+ * GameEngine only locks the session that a remote call operates on and different players never wait on each other.
+ */
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Player {
+    final String name;
+    // phrases generated for this player, numbers the phrases of seeded runs
+    final AtomicLong phrases = new AtomicLong();
+    PhraseState round;
+    int numberOfTries;
+    int totalScore;
+    // the candidates of the last hint, narrowed further by the next hint of the same round
+    HintEngine.State hint;
+    // the token bucket of the player's calls, kept by the AdmissionControl
+    volatile long arrival;
+    // renewed by every call, read by the idle session sweeper
+    private volatile long lastActive = System.currentTimeMillis();
+
+    public Player(String player) {
+        this.name = player;
+        this.round = PhraseState.EMPTY;
+        this.numberOfTries = 0;
+        this.totalScore = 0;
+    }
+
+    /**************************************************************************
+     * touch
+     *
+     * Marks the session as used now. The timestamp is only written when it is
+     * at least a second old, so busy players do not keep writing to it.
+     **************************************************************************/
+    void touch() {
+        long now = System.currentTimeMillis();
+        if (now - lastActive >= 1000)
+            lastActive = now;
+    }
+
+    long lastActive() {
+        return lastActive;
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * Room.java
+ *
+ * Room is a shared game: every member guesses the same phrase at the same time, and whoever reveals a letter first
+ * scores one point for every position it uncovers. Solving the whole phrase scores the letters that were still
+ * hidden, and the points of a room also count towards the player's total score. Each member has its own tries per
+ * round; a wrong guess costs a try and a member without tries waits for the next round, which starts as soon as the
+ * phrase is solved.
+ *
+ * Guessing takes no lock. The positions of every letter are indexed once when the round starts and never change;
+ * revealing a letter is a single compare-and-set on that letter's claim flag, so exactly one member reveals it and
+ * everybody else sees it as already revealed. The reveal is then pushed to the other members as one shared event.
+ * Every member has its own queue of pending events and a delivery thread sends a member whatever has piled up in one
+ * callback, so a slow client only delays itself. When a member falls so far behind that its queue overflows, the
+ * backlog is thrown away and replaced by one snapshot of the round, which says the same thing in far fewer bytes.
+ * A member whose callback fails is dropped from the room. Only joining and leaving lock the room, to keep the member
+ * list consistent.
+ */
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Room {
+    private static final int MAX_PENDING = Integer.getInteger("game.room.maxPending", 1024);
+    private static final int MAX_BATCH = 256;
+    private static final int[] NONE = new int[0];
+
+    final String name;
+    private final int numberOfWords;
+    private final int maxTries;
+    private final RoomManager manager;
+    private final CopyOnWriteArrayList<Member> members = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<String, Member> byName = new ConcurrentHashMap<>();
+    private volatile Round round;
+    private boolean closed;
+
+    Room(String name, int numberOfWords, int attemptsPerWord, RoomManager manager) {
+        this.name = name;
+        this.numberOfWords = numberOfWords;
+        this.maxTries = numberOfWords * attemptsPerWord;
+        this.manager = manager;
+        this.round = new Round(1, manager.generate(name, numberOfWords, 0));
+    }
+
+    /**************************************************************************
+     * join
+     *
+     * Adds the player to the room and returns the round in progress as the
+     * player sees it. A player who joins again keeps the room score and only
+     * replaces the listener. Returns null if the room was closed because its
+     * last member left; the caller then creates a new one.
+     **************************************************************************/
+    synchronized RoomEvent join(String player, RoomListener listener) {
+        if (closed)
+            return null;
+        Member member = new Member(player, listener);
+        Member old = byName.put(player, member);
+        if (old != null) {
+            old.gone = true;
+            member.score.set(old.score.get());
+            member.tries.set(old.tries.get());
+            members.remove(old);
+        }
+        members.add(member);
+
+        // the member is listening before the mask is read, so no reveal can fall in between
+        Round r = round;
+        return RoomEvent.round(r.number, r.mask(), member.triesLeft(r.number, maxTries), member.score.get());
+    }
+
+    /**************************************************************************
+     * leave
+     *
+     * Removes the player from the room. Returns true if the room is now empty
+     * and closed.
+     **************************************************************************/
+    synchronized boolean leave(String player) {
+        Member member = byName.remove(player);
+        if (member != null) {
+            member.gone = true;
+            members.remove(member);
+        }
+        return closeIfEmpty();
+    }
+
+    private synchronized boolean drop(Member member) {
+        if (byName.remove(member.player, member))
+            members.remove(member);
+        return closeIfEmpty();
+    }
+
+    private boolean closeIfEmpty() {
+        if (members.isEmpty())
+            closed = true;
+        return closed;
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    /**************************************************************************
+     * guess
+     *
+     * Applies a guess of the player: a letter if it is one character long, the
+     * whole phrase otherwise. Returns the event that answers the player, or
+     * null if the player is not a member of the room.
+     **************************************************************************/
+    RoomEvent guess(String player, String guess) {
+        Member member = byName.get(player);
+        if (member == null)
+            return null;
+        Round r = round;
+        if (member.triesLeft(r.number, maxTries) == 0)
+            return RoomEvent.missed(r.number, 0, member.score.get());
+        return guess.length() == 1 ? letter(member, r, guess.charAt(0)) : phrase(member, r, guess);
+    }
+
+    private RoomEvent letter(Member member, Round r, char letter) {
+        int[] positions = r.claim(letter);
+        if (positions == null)
+            return RoomEvent.missed(r.number, member.useTry(r.number, maxTries), member.score.get());
+        if (positions.length == 0)
+            return RoomEvent.revealed(r.number, member.player, letter, NONE, member.score.get());
+
+        RoomEvent revealed = RoomEvent.revealed(r.number, member.player, letter, positions,
+                member.score.addAndGet(positions.length));
+        manager.scored(member.player, positions.length);
+        publish(revealed, member);
+        if (r.unrevealed.addAndGet(-positions.length) == 0 && r.over.compareAndSet(false, true))
+            finish(r, RoomEvent.solved(r.number, member.player, r.phrase, member.score.get()), null);
+        return revealed;
+    }
+
+    private RoomEvent phrase(Member member, Round r, String guess) {
+        if (!guess.equals(r.phrase) || !r.over.compareAndSet(false, true))
+            return RoomEvent.missed(r.number, member.useTry(r.number, maxTries), member.score.get());
+
+        int points = Math.max(1, r.unrevealed.getAndSet(0));
+        RoomEvent solved = RoomEvent.solved(r.number, member.player, r.phrase, member.score.addAndGet(points));
+        manager.scored(member.player, points);
+        finish(r, solved, member);
+        return solved;
+    }
+
+    /**************************************************************************
+     * finish
+     *
+     * Ends the round: announces who solved it and starts the next one. Only
+     * the member that set the round's over flag gets here, so the next round
+     * is started exactly once.
+     **************************************************************************/
+    private void finish(Round r, RoomEvent solved, Member solver) {
+        publish(solved, solver);
+        Round next = new Round(r.number + 1, manager.generate(name, numberOfWords, r.number));
+        round = next;
+        publish(RoomEvent.round(next.number, next.mask(), maxTries, 0), null);
+    }
+
+    /**************************************************************************
+     * publish
+     *
+     * Queues the event for every member except the one who caused it.
+     **************************************************************************/
+    private void publish(RoomEvent event, Member except) {
+        for (Member m : members)
+            if (m != except)
+                m.send(event);
+    }
+
+    /**************************************************************************
+     * Round
+     *
+     * The phrase of one round, its letters indexed by character, and which of
+     * them have been revealed. Characters below 128 are their own slot; other
+     * characters get a slot of their own when the round is created.
+     **************************************************************************/
+    static final class Round {
+        private static final int ALPHABET = 128;
+
+        final int number;
+        final String phrase;
+        final AtomicInteger unrevealed = new AtomicInteger();
+        final AtomicBoolean over = new AtomicBoolean();
+        private final Map<Character, Integer> extraSlots = new HashMap<>();
+        private final int[][] positions;
+        private final AtomicIntegerArray claimed;
+
+        Round(int number, String phrase) {
+            this.number = number;
+            this.phrase = phrase;
+
+            int[] counts = new int[ALPHABET + phrase.length()];
+            for (int i = 0; i < phrase.length(); i++) {
+                char c = phrase.charAt(i);
+                if (c == ' ')
+                    continue;
+                if (c >= ALPHABET && !extraSlots.containsKey(c))
+                    extraSlots.put(c, ALPHABET + extraSlots.size());
+                counts[slot(c)]++;
+            }
+            positions = new int[ALPHABET + extraSlots.size()][];
+            claimed = new AtomicIntegerArray(positions.length);
+            for (int i = 0; i < phrase.length(); i++) {
+                char c = phrase.charAt(i);
+                if (c == ' ')
+                    continue;
+                int s = slot(c);
+                if (positions[s] == null)
+                    positions[s] = new int[counts[s]];
+                positions[s][positions[s].length - counts[s]--] = i;
+                unrevealed.incrementAndGet();
+            }
+        }
+
+        /**********************************************************************
+         * claim
+         *
+         * Reveals the letter if nobody has yet. Returns its positions to the one
+         * caller that revealed it, an empty array to everybody after that, and
+         * null if the letter is not in the phrase.
+         **********************************************************************/
+        int[] claim(char letter) {
+            if (letter == ' ')
+                return NONE;
+            int s = slot(letter);
+            if (s < 0 || positions[s] == null)
+                return null;
+            return !over.get() && claimed.compareAndSet(s, 0, 1) ? positions[s] : NONE;
+        }
+
+        /**********************************************************************
+         * mask
+         *
+         * Returns the phrase with a '-' for every letter not revealed yet.
+         **********************************************************************/
+        String mask() {
+            char[] mask = phrase.toCharArray();
+            for (int i = 0; i < mask.length; i++)
+                if (mask[i] != ' ' && claimed.get(slot(mask[i])) == 0)
+                    mask[i] = '-';
+            return new String(mask);
+        }
+
+        private int slot(char c) {
+            if (c < ALPHABET)
+                return c;
+            Integer s = extraSlots.get(c);
+            return s == null ? -1 : s;
+        }
+    }
+
+    /**************************************************************************
+     * Member
+     *
+     * One player in the room: the listener, the room score, the tries used in
+     * the current round and the events waiting to be delivered.
+     **************************************************************************/
+    final class Member {
+        final String player;
+        final RoomListener listener;
+        final AtomicInteger score = new AtomicInteger();
+        // the round number in the high half and the tries used in that round in the low half,
+        // so a new round resets the tries without anybody having to visit every member
+        final AtomicLong tries = new AtomicLong();
+        private final ConcurrentLinkedQueue<RoomEvent> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean resync = new AtomicBoolean();
+        volatile boolean gone;
+
+        Member(String player, RoomListener listener) {
+            this.player = player;
+            this.listener = listener;
+        }
+
+        int triesLeft(int round, int max) {
+            long v = tries.get();
+            return (int) (v >>> 32) == round ? max - (int) v : max;
+        }
+
+        /** Uses up one try of the round and returns the tries left. */
+        int useTry(int round, int max) {
+            while (true) {
+                long v = tries.get();
+                int used = (int) (v >>> 32) == round ? (int) v : 0;
+                if (used >= max)
+                    return 0;
+                if (tries.compareAndSet(v, ((long) round << 32) | (used + 1)))
+                    return max - used - 1;
+            }
+        }
+
+        void send(RoomEvent event) {
+            if (gone || listener == null)
+                return;
+            if (queued.incrementAndGet() > MAX_PENDING) {
+                queued.decrementAndGet();
+                resync.set(true);
+            } else {
+                pending.add(event);
+            }
+            if (scheduled.compareAndSet(false, true))
+                manager.deliver(this::drain);
+        }
+
+        /**********************************************************************
+         * drain
+         *
+         * Runs on a delivery thread and sends everything queued for this member
+         * in one callback. Only one drain of a member runs at a time, which
+         * keeps its events in order. After an overflow the queue is replaced by
+         * a snapshot of the round; events queued after the snapshot was taken
+         * may repeat part of it, which does no harm since a reveal can be
+         * applied twice.
+         **********************************************************************/
+        private void drain() {
+            List<RoomEvent> batch = new ArrayList<>();
+            // only events taken from pending were counted in queued, not the snapshot
+            int polled = 0;
+            if (resync.getAndSet(false)) {
+                int discarded = 0;
+                while (pending.poll() != null)
+                    discarded++;
+                queued.addAndGet(-discarded);
+                Round r = round;
+                batch.add(RoomEvent.round(r.number, r.mask(), triesLeft(r.number, maxTries), score.get()));
+                manager.resynced();
+            }
+            RoomEvent event;
+            while (batch.size() < MAX_BATCH && (event = pending.poll()) != null) {
+                batch.add(event);
+                polled++;
+            }
+            queued.addAndGet(-polled);
+            if (!batch.isEmpty() && !gone) {
+                try {
+                    listener.roomEvents(batch);
+                    manager.delivered(batch.size());
+                } catch (Exception e) {
+                    gone = true;
+                    manager.dropped(Room.this, drop(this), player, e.getMessage());
+                }
+            }
+            scheduled.set(false);
+            if ((!pending.isEmpty() || resync.get()) && !gone && scheduled.compareAndSet(false, true))
+                manager.deliver(this::drain);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * RoomClient.java
+ *
+ * RoomClient is the client for shared rooms. After the username it asks for a room to join, as "room name i f",
+ * where i and f are the number of words and tries per word used if the room has to be created. Every line typed
+ * after that is a guess: one character guesses a letter, anything longer the whole phrase. Type . to leave.
+ *
+ * The client exports a RoomListener, so the server pushes the reveals of the other players and the start of every
+ * new round as they happen; the client keeps its own copy of the masked phrase and applies them to it.
+ *
+ * Usage: java RoomClient [host]
+ */
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+
+public class RoomClient {
+
+    public static void main(String[] args) throws Exception {
+        BufferedReader inFromUser = new BufferedReader(new InputStreamReader(System.in));
+        String host = args.length > 0 ? args[0] : "localhost";
+
+        System.out.println("Welcome to Phrase Guessing rooms. Enter the username:");
+        String player = inFromUser.readLine();
+
+        try {
+            PhraseGuessingGameServer remote = (PhraseGuessingGameServer) Naming
+                    .lookup("rmi://" + host + "/PhraseGuessingGameServer");
+            while (!remote.initializePlayer(player)) {
+                System.out.println("Username exists. Choose a different username:");
+                player = inFromUser.readLine();
+            }
+
+            String[] join = null;
+            while (join == null) {
+                System.out.println("TO JOIN A ROOM ENTER: 'room name i f'");
+                String line = inFromUser.readLine();
+                if (line == null || line.equals(".")) {
+                    remote.endGame(player);
+                    return;
+                }
+                join = line.trim().split("\\s+");
+                if (!(join.length == 4 && join[0].equals("room") && Client.validateInput(
+                        new String[] { "start", join[2], join[3] })))
+                    join = null;
+            }
+
+            Board board = new Board(player);
+            UnicastRemoteObject.exportObject(board, 0);
+            String room = join[1];
+            board.show(remote.joinRoom(player, room, Integer.parseInt(join[2]), Integer.parseInt(join[3]), board));
+            System.out.println("Guess a letter or the phrase, type . to leave.");
+
+            String guess;
+            while ((guess = inFromUser.readLine()) != null && !guess.equals(".")) {
+                if (!guess.isEmpty())
+                    board.show(remote.roomGuess(player, room, guess));
+            }
+            remote.leaveRoom(player, room);
+            System.out.println("FROM SERVER: " + remote.endGame(player));
+            UnicastRemoteObject.unexportObject(board, true);
+        } catch (RemoteException | NotBoundException e) {
+            System.out.println("Connection could not be established. Try again.\n");
+            System.exit(1);
+        }
+    }
+
+    /**************************************************************************
+     * Board
+     *
+     * The client's copy of the room: the masked phrase of the current round,
+     * updated both by the replies to our guesses and by the events the server
+     * pushes.
+     **************************************************************************/
+    static class Board implements RoomListener {
+        private final String player;
+        private int round;
+        private char[] masked = new char[0];
+
+        Board(String player) {
+            this.player = player;
+        }
+
+        @Override
+        public void roomEvents(List<RoomEvent> events) {
+            for (RoomEvent event : events)
+                show(event);
+        }
+
+        synchronized void show(RoomEvent event) {
+            if (event.getRound() < round)
+                return;
+            switch (event.getType()) {
+            case ROUND:
+                round = event.getRound();
+                masked = event.getPhrase().toCharArray();
+                System.out.println("ROUND " + round + ": " + event.getPhrase() + " Tries: " + event.getTries());
+                break;
+            case REVEALED:
+                event.applyTo(masked);
+                if (event.getPositions().length == 0)
+                    System.out.println("'" + event.getLetter() + "' is already revealed: " + new String(masked));
+                else
+                    System.out.println(who(event) + " revealed '" + event.getLetter() + "': " + new String(masked)
+                            + " Score: " + event.getScore());
+                break;
+            case MISSED:
+                System.out.println("Wrong guess. Tries: " + event.getTries());
+                break;
+            case SOLVED:
+                System.out.println(who(event) + " solved it! The phrase was: " + event.getPhrase() + " Score: "
+                        + event.getScore());
+                break;
+            }
+        }
+
+        private String who(RoomEvent event) {
+            return player.equals(event.getPlayer()) ? "You" : event.getPlayer();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * RoomEvent.java
+ *
+ * RoomEvent is one thing that happened in a shared room: a round started, a player revealed a letter, a guess missed,
+ * or a player solved the phrase. The same object is the reply to the player who caused it and is pushed to every
+ * other member of the room, so a reveal is built once no matter how many players are watching. Like a GuessResult it
+ * only carries the positions a letter revealed; clients keep their own copy of the masked phrase. Every event names
+ * the round it belongs to, and clients ignore events of a round that is already over.
+ *
+ * The class is Externalizable and writes itself with the variable length integers of GuessResult.
+ */
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.StandardCharsets;
+
+public class RoomEvent implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    private static final int[] NONE = new int[0];
+
+    public enum Type {
+        /** A round started. Carries the masked phrase and the tries every member has in it. */
+        ROUND,
+        /** A player revealed a letter; the positions are empty if it had already been revealed. */
+        REVEALED,
+        /** The guess was wrong, or the player has no tries left in this round. Only sent to the guesser. */
+        MISSED,
+        /** A player solved the phrase. Carries the phrase. */
+        SOLVED
+    }
+
+    private Type type;
+    private int round;
+    private String player;
+    private char letter;
+    private int[] positions;
+    private int tries;
+    private int score;
+    private String phrase;
+
+    /** Only used by serialization. */
+    public RoomEvent() {
+        this.positions = NONE;
+    }
+
+    private RoomEvent(Type type, int round, String player, char letter, int[] positions, int tries, int score,
+            String phrase) {
+        this.type = type;
+        this.round = round;
+        this.player = player;
+        this.letter = letter;
+        this.positions = positions == null ? NONE : positions;
+        this.tries = tries;
+        this.score = score;
+        this.phrase = phrase;
+    }
+
+    /**************************************************************************
+     * round
+     *
+     * A round started, or a player joined during a round. The score is the
+     * room score of the player it is sent to, or 0 when a new round is
+     * announced to everyone.
+     **************************************************************************/
+    public static RoomEvent round(int round, String maskedPhrase, int tries, int score) {
+        return new RoomEvent(Type.ROUND, round, null, '\0', null, tries, score, maskedPhrase);
+    }
+
+    /**************************************************************************
+     * revealed
+     *
+     * A player revealed the given positions. The score is that player's room
+     * score after the reveal. The positions array is shared, not copied.
+     **************************************************************************/
+    public static RoomEvent revealed(int round, String player, char letter, int[] positions, int score) {
+        return new RoomEvent(Type.REVEALED, round, player, letter, positions, 0, score, null);
+    }
+
+    public static RoomEvent missed(int round, int tries, int score) {
+        return new RoomEvent(Type.MISSED, round, null, '\0', null, tries, score, null);
+    }
+
+    public static RoomEvent solved(int round, String player, String phrase, int score) {
+        return new RoomEvent(Type.SOLVED, round, player, '\0', null, 0, score, phrase);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getRound() {
+        return round;
+    }
+
+    /** The player who revealed or solved, null for the other types. */
+    public String getPlayer() {
+        return player;
+    }
+
+    public char getLetter() {
+        return letter;
+    }
+
+    public int[] getPositions() {
+        return positions;
+    }
+
+    /** The tries left, for ROUND and MISSED events. */
+    public int getTries() {
+        return tries;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    /** The masked phrase of a ROUND event, the phrase of a SOLVED event, null otherwise. */
+    public String getPhrase() {
+        return phrase;
+    }
+
+    /**************************************************************************
+     * applyTo
+     *
+     * Writes the letters revealed by this event into the client's copy of the
+     * masked phrase.
+     **************************************************************************/
+    public void applyTo(char[] masked) {
+        for (int pos : positions)
+            masked[pos] = letter;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(type.ordinal() | (player != null ? 0x40 : 0) | (phrase != null ? 0x80 : 0));
+        GuessResult.writeVarInt(out, round);
+        GuessResult.writeVarInt(out, tries);
+        GuessResult.writeVarInt(out, score);
+        GuessResult.writeVarInt(out, positions.length);
+        // a reveal of a letter that was already shown has no positions but still names the letter
+        if (positions.length > 0 || type == Type.REVEALED)
+            out.writeChar(letter);
+        if (positions.length > 0) {
+            int last = 0;
+            for (int pos : positions) {
+                GuessResult.writeVarInt(out, pos - last);
+                last = pos;
+            }
+        }
+        if (player != null)
+            writeString(out, player);
+        if (phrase != null)
+            writeString(out, phrase);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        int head = in.readUnsignedByte();
+        type = Type.values()[head & 0x3f];
+        round = GuessResult.readVarInt(in);
+        tries = GuessResult.readVarInt(in);
+        score = GuessResult.readVarInt(in);
+        int count = GuessResult.readVarInt(in);
+        positions = count == 0 ? NONE : new int[count];
+        if (count > 0 || type == Type.REVEALED)
+            letter = in.readChar();
+        if (count > 0) {
+            int last = 0;
+            for (int i = 0; i < count; i++)
+                positions[i] = last += GuessResult.readVarInt(in);
+        }
+        player = (head & 0x40) != 0 ? readString(in) : null;
+        phrase = (head & 0x80) != 0 ? readString(in) : null;
+    }
+
+    private static void writeString(ObjectOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        GuessResult.writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ObjectInput in) throws IOException {
+        byte[] bytes = new byte[GuessResult.readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
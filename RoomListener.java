@@ -0,0 +1,16 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * RoomListener.java
+ *
+ * RoomListener is the remote callback interface of a room. A client that joins a room exports one and the server
+ * pushes what happens in the room to it, so clients never have to poll. Events are delivered in the order they
+ * happened and, when they come in faster than the client takes them, several at a time.
+ */
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+
+public interface RoomListener extends Remote {
+    public void roomEvents(List<RoomEvent> events) throws RemoteException;
+}
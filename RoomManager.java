@@ -0,0 +1,183 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * RoomManager.java
+ *
+ * RoomManager keeps the shared rooms of the server by name. A room is created by the first player who joins it,
+ * with that player's number of words and tries, and is removed when its last member leaves. The manager also owns
+ * the pool of delivery threads that push room events to the members' listeners; the threads block on slow clients,
+ * so there are a few per core. The phrases of a room come from the server's PhraseGenerator, numbered by round, so
+ * a seeded server plays the same phrases in a room every time, from the current dictionary of the DictionaryManager.
+ * The points a member scores are handed on to the server, which adds them to the player's total score. A player can
+ * be in at most game.room.maxPerPlayer rooms (16 by default) at once.
+ */
+import java.rmi.RemoteException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjIntConsumer;
+
+public class RoomManager {
+    private static final int MAX_ROOMS_PER_PLAYER = Integer.getInteger("game.room.maxPerPlayer", 16);
+
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+    // the names of the rooms every player is in
+    private final ConcurrentHashMap<String, Set<String>> joined = new ConcurrentHashMap<>();
+    private final DictionaryManager dictionary;
+    private final PhraseGenerator generator;
+    private final ObjIntConsumer<String> onScore;
+    private final ExecutorService delivery;
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder resyncs = new LongAdder();
+
+    public RoomManager(DictionaryManager dictionary, PhraseGenerator generator, ObjIntConsumer<String> onScore) {
+        this.dictionary = dictionary;
+        this.generator = generator;
+        this.onScore = onScore;
+        AtomicInteger threads = new AtomicInteger();
+        this.delivery = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2),
+                r -> {
+                    Thread t = new Thread(r, "room-delivery-" + threads.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**************************************************************************
+     * join
+     *
+     * Adds the player to the named room, creating the room if it does not
+     * exist, and returns the round in progress. Refuses a player who is in
+     * as many rooms as a player may be.
+     **************************************************************************/
+    public RoomEvent join(String player, String room, int numberOfWords, int attemptsPerWord,
+            RoomListener listener) throws RemoteException {
+        Set<String> mine = joined.compute(player, (name, set) -> {
+            if (set == null)
+                set = ConcurrentHashMap.newKeySet();
+            if (set.size() < MAX_ROOMS_PER_PLAYER)
+                set.add(room);
+            return set;
+        });
+        if (!mine.contains(room))
+            throw new RemoteException("A player can be in at most " + MAX_ROOMS_PER_PLAYER + " rooms.");
+        while (true) {
+            Room r = rooms.computeIfAbsent(room, name -> new Room(name, numberOfWords, attemptsPerWord, this));
+            RoomEvent event = r.join(player, listener);
+            if (event != null) {
+                GameLog.info("Player " + player + " joined room " + room + ".");
+                return event;
+            }
+            // the last member left while we were joining; that member removes the room
+            rooms.remove(room, r);
+        }
+    }
+
+    /**************************************************************************
+     * guess
+     *
+     * Applies a guess of the player in the named room. Returns null if the
+     * player is not a member of that room.
+     **************************************************************************/
+    public RoomEvent guess(String player, String room, String guess) {
+        Room r = rooms.get(room);
+        return r == null ? null : r.guess(player, guess);
+    }
+
+    public void leave(String player, String room) {
+        Room r = rooms.get(room);
+        if (r != null && r.leave(player))
+            rooms.remove(room, r);
+        left(player, room);
+    }
+
+    /**************************************************************************
+     * leaveAll
+     *
+     * Removes the player from every room, when the player ends the game or
+     * the session is evicted.
+     **************************************************************************/
+    public void leaveAll(String player) {
+        Set<String> mine = joined.remove(player);
+        if (mine == null)
+            return;
+        for (String room : mine) {
+            Room r = rooms.get(room);
+            if (r != null && r.leave(player))
+                rooms.remove(room, r);
+        }
+    }
+
+    private void left(String player, String room) {
+        joined.computeIfPresent(player, (name, set) -> {
+            set.remove(room);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    public int size() {
+        return rooms.size();
+    }
+
+    public long members() {
+        long members = 0;
+        for (Room r : rooms.values())
+            members += r.size();
+        return members;
+    }
+
+    public long delivered() {
+        return delivered.sum();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /**************************************************************************
+     * resyncs
+     *
+     * Returns how many times a member fell behind and was sent a snapshot of
+     * the round instead of its backlog.
+     **************************************************************************/
+    public long resyncs() {
+        return resyncs.sum();
+    }
+
+    public void shutdown() {
+        delivery.shutdownNow();
+    }
+
+    String generate(String room, int numberOfWords, long round) {
+        // a room draws its own sequence of phrases, apart from a player of the same name
+        return generator.generate(dictionary.current(), numberOfWords, "room " + room, round);
+    }
+
+    void deliver(Runnable drain) {
+        delivery.execute(drain);
+    }
+
+    void delivered(int events) {
+        delivered.add(events);
+    }
+
+    void resynced() {
+        resyncs.increment();
+    }
+
+    void scored(String player, int points) {
+        onScore.accept(player, points);
+    }
+
+    void dropped(Room room, boolean empty, String player, String reason) {
+        dropped.increment();
+        if (empty)
+            rooms.remove(room.name, room);
+        left(player, room.name);
+        GameLog.info("Player " + player + " was dropped from room " + room.name + ": " + reason);
+    }
+}
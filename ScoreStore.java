@@ -0,0 +1,67 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * ScoreStore.java
+ *
+ * ScoreStore is where the GameHandler keeps the total score of every player, so that a score outlives the player's
+ * session and, with a durable store, a server restart. Saving must never block: a GameEngine saves while it holds
+ * the player's lock, on its shard's only thread, on the path of every guess that ends a round. One store is shared by
+ * all the shards.
+ *
+ * The store is chosen with the game.scores system property: the path of a FileScoreStore log, or nothing for an
+ * InMemoryScoreStore.
+ */
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.function.BiConsumer;
+
+public interface ScoreStore extends AutoCloseable {
+
+    /**************************************************************************
+     * load
+     *
+     * Returns the saved total score of the player, or 0 for a new player.
+     **************************************************************************/
+    public int load(String player);
+
+    /**************************************************************************
+     * save
+     *
+     * Records the player's new total score. Returns right away; a durable
+     * store writes it out later.
+     **************************************************************************/
+    public void save(String player, int score);
+
+    /**************************************************************************
+     * forEach
+     *
+     * Hands every saved score to the action. Used when the server starts, to
+     * fill the Leaderboard with the players of earlier runs.
+     **************************************************************************/
+    public void forEach(BiConsumer<String, Integer> action);
+
+    /**************************************************************************
+     * close
+     *
+     * Writes out every saved score and releases the store.
+     **************************************************************************/
+    @Override
+    public void close();
+
+    /**************************************************************************
+     * fromSystemProperties
+     *
+     * Opens the store named by the game.scores system property.
+     **************************************************************************/
+    public static ScoreStore fromSystemProperties() {
+        String file = System.getProperty("game.scores");
+        if (file == null)
+            return new InMemoryScoreStore();
+        try {
+            return new FileScoreStore(Paths.get(file));
+        } catch (IOException e) {
+            GameLog.warn("FILE IO ERROR: " + e.getMessage() + ". Scores will not be saved.");
+            return new InMemoryScoreStore();
+        }
+    }
+}
@@ -5,9 +5,16 @@
  *
  * The Server class contains the main method which initializes the RMI registry and then creates a new GameHandler
  * for remote object implementation and then binds that instance to a name in the Java RMI registry which is the
- * PhraseGuessingGameServer.
+ * PhraseGuessingGameServer. The same GameHandler is also served over the plain text protocol of NioGameServer, on the
+ * port given by the game.nio.port system property (4000 by default, 0 to turn it off). When the server stops, the
+ * pending scores of the GameHandler are written out. The metrics of the GameHandler are registered over JMX, and
+ * typing "stats" on the server console prints them. A dictionary given with game.dictionary is watched and reloaded
+ * when the file changes; typing "reload" reloads it right away.
  */
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.rmi.Naming;
 import java.rmi.RemoteException;
@@ -24,11 +31,51 @@ public class Server {
             }
             System.out.println("Server ON. Waiting for the client...");
             GameHandler local = new GameHandler();
+            Runtime.getRuntime().addShutdownHook(new Thread(local::shutdown));
+            local.metrics().register();
             Naming.rebind("rmi:///PhraseGuessingGameServer", local);
+            DictionaryManager.shared().watch();
+
+            int nioPort = Integer.getInteger("game.nio.port", 4000);
+            if (nioPort > 0) {
+                new NioGameServer(local, nioPort).start();
+                System.out.println("Text protocol listening on port " + nioPort + ".");
+            }
+
+            Thread console = new Thread(() -> console(local), "server-console");
+            console.setDaemon(true);
+            console.start();
         } catch (RemoteException re) {
             re.printStackTrace();
         } catch (MalformedURLException mfe) {
             mfe.printStackTrace();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    /**************************************************************************
+     * console
+     *
+     * Reads commands typed on the server console until it is closed. "stats"
+     * prints the metrics of the GameHandler, "reload" reloads the dictionary.
+     **************************************************************************/
+    private static void console(GameHandler local) {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().equals("stats"))
+                    System.out.print(local.metrics().dump());
+                else if (line.trim().equals("reload"))
+                    System.out.println(DictionaryManager.shared().reload() ? "Dictionary reloaded."
+                            : "Dictionary not reloaded, see the log.");
+                else if (!line.isBlank())
+                    System.out.println("Unknown command. Type stats to print the server metrics, or reload to reload"
+                            + " the dictionary.");
+            }
+        } catch (IOException e) {
+            // no console
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,57 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * ServerBusyException.java
+ *
+ * ServerBusyException is thrown by a remote call that the AdmissionControl turned away before it ran, either because
+ * the player made too many calls or because the server already runs as many calls as it takes at once. Nothing of the
+ * call was done, so it can be made again after the suggested wait. Clients tell it apart from other failures by its
+ * type.
+ */
+import java.rmi.RemoteException;
+
+public class ServerBusyException extends RemoteException {
+    private static final long serialVersionUID = 1L;
+
+    public enum Reason {
+        /** The player made more calls than game.admission.rate allows. */
+        RATE_LIMITED,
+        /** The server already runs game.admission.maxCalls calls. */
+        OVERLOADED
+    }
+
+    private final Reason reason;
+    private final long retryAfterMillis;
+
+    public ServerBusyException(Reason reason, long retryAfterMillis) {
+        super(reason == Reason.RATE_LIMITED ? "Too many calls, retry in " + retryAfterMillis + "ms."
+                : "Server busy, retry in " + retryAfterMillis + "ms.");
+        this.reason = reason;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**************************************************************************
+     * of
+     *
+     * Returns the ServerBusyException a remote call failed with, or null if
+     * it failed for another reason. RMI hands an exception thrown by the
+     * server to the client wrapped in a ServerException, so the cause is
+     * looked at as well.
+     **************************************************************************/
+    public static ServerBusyException of(RemoteException e) {
+        if (e instanceof ServerBusyException)
+            return (ServerBusyException) e;
+        if (e.getCause() instanceof ServerBusyException)
+            return (ServerBusyException) e.getCause();
+        return null;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /** How long the client should wait before it calls again. */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * SessionRegistry.java
+ *
+ * SessionRegistry is the table of live players, keyed by username. It is backed by a ConcurrentHashMap so that
+ * lookups never block and registering or removing one player does not stall remote calls made by other players.
+ * The state of a single player is guarded by the Player object itself.
+ *
+ * Every session works like a lease: each call a player makes renews it, and a background sweeper evicts sessions
+ * that have been idle longer than the idle timeout, so clients that crash or lose their connection do not keep their
+ * username and their memory forever. The number of live sessions is capped; registering past the cap is refused.
+ *
+ * With an OffHeapSessionStore, sessions that have been idle for a shorter time are parked in it: they leave the map
+ * and the heap but still count as live, and the next lookup of the player takes the session back into the map.
+ * Moving a session between the map and the store happens under the monitor of the store. Parking walks the map
+ * in tasks of a few hundred sessions on the shard thread, so the calls of that shard are not held up by a pass.
+ */
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+public class SessionRegistry {
+    private static final int PARK_BATCH = 256;
+
+    public enum Registration {
+        ADDED, TAKEN, FULL
+    }
+
+    private final ConcurrentHashMap<String, Player> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger live = new AtomicInteger();
+    private final LongAdder evictions = new LongAdder();
+    private final int maxSessions;
+    private final OffHeapSessionStore parked;
+    private ScheduledExecutorService sweeper;
+
+    public SessionRegistry() {
+        this(Integer.MAX_VALUE);
+    }
+
+    public SessionRegistry(int maxSessions) {
+        this(maxSessions, null);
+    }
+
+    public SessionRegistry(int maxSessions, OffHeapSessionStore parked) {
+        this.maxSessions = maxSessions;
+        this.parked = parked;
+    }
+
+    /**************************************************************************
+     * register
+     *
+     * Atomically adds the session of a new player. Returns ADDED if the session
+     * was added, TAKEN if a player of that name already exists and FULL if the
+     * registry already holds the maximum number of sessions.
+     **************************************************************************/
+    public Registration register(Player player) {
+        if (live.incrementAndGet() > maxSessions) {
+            live.decrementAndGet();
+            return Registration.FULL;
+        }
+        if (parked != null) {
+            synchronized (parked) {
+                if (!parked.contains(player.name) && sessions.putIfAbsent(player.name, player) == null)
+                    return Registration.ADDED;
+            }
+            live.decrementAndGet();
+            return Registration.TAKEN;
+        }
+        if (sessions.putIfAbsent(player.name, player) != null) {
+            live.decrementAndGet();
+            return Registration.TAKEN;
+        }
+        return Registration.ADDED;
+    }
+
+    /**************************************************************************
+     * get
+     *
+     * Returns the session of the given player, or null if there is none. A
+     * parked session is taken back into the map first.
+     **************************************************************************/
+    public Player get(String player) {
+        Player p = sessions.get(player);
+        if (p != null || parked == null)
+            return p;
+        synchronized (parked) {
+            p = sessions.get(player);
+            if (p == null) {
+                p = parked.take(player);
+                if (p != null)
+                    sessions.put(player, p);
+            }
+            return p;
+        }
+    }
+
+    /**************************************************************************
+     * remove
+     *
+     * Removes the session of the given player and returns it, or null if there
+     * was none.
+     **************************************************************************/
+    public Player remove(String player) {
+        Player p = sessions.remove(player);
+        if (p == null && parked != null) {
+            // the session may be taken back into the map meanwhile, so look again under the store's monitor
+            synchronized (parked) {
+                p = sessions.remove(player);
+                if (p == null)
+                    p = parked.take(player);
+            }
+        }
+        if (p != null)
+            live.decrementAndGet();
+        return p;
+    }
+
+    public int size() {
+        return live.get();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /** The number of live sessions that are parked off the heap. */
+    public int parked() {
+        return parked == null ? 0 : parked.size();
+    }
+
+    /** The bytes of direct memory the parked sessions take. */
+    public long parkedBytes() {
+        return parked == null ? 0 : parked.bytes();
+    }
+
+    /**************************************************************************
+     * startSweeper
+     *
+     * Starts a daemon thread that looks for idle sessions a few times per idle
+     * timeout and evicts them, passing each evicted player to onEvict.
+     **************************************************************************/
+    public synchronized void startSweeper(long idleMillis, Consumer<Player> onEvict) {
+        long period = Math.max(1, idleMillis / 4);
+        sweeper().scheduleWithFixedDelay(() -> evictIdle(idleMillis, onEvict), period, period,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**************************************************************************
+     * startParking
+     *
+     * Parks the sessions that have been idle for the given time a few times
+     * per that time. The parking itself is handed to the executor, which must
+     * be the thread that runs the calls of these players, so no call changes
+     * a session while it is written out. Does nothing without a store.
+     **************************************************************************/
+    public synchronized void startParking(long parkMillis, Executor executor, Supplier<Dictionary> dictionary) {
+        if (parked == null)
+            return;
+        Parker parker = new Parker(parkMillis, executor, dictionary);
+        long period = Math.max(1, parkMillis / 4);
+        sweeper().scheduleWithFixedDelay(parker::start, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private ScheduledExecutorService sweeper() {
+        if (sweeper == null)
+            sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "session-sweeper");
+                t.setDaemon(true);
+                return t;
+            });
+        return sweeper;
+    }
+
+    /**************************************************************************
+     * parkIdle
+     *
+     * Moves every session that has not been used for the given time into the
+     * store, unless it does not fit there. Returns the number parked.
+     **************************************************************************/
+    public int parkIdle(long parkMillis, Dictionary dictionary) {
+        if (parked == null)
+            return 0;
+        long cutoff = System.currentTimeMillis() - parkMillis;
+        int moved = 0;
+        for (Player p : sessions.values())
+            if (park(p, cutoff, dictionary))
+                moved++;
+        return moved;
+    }
+
+    private boolean park(Player p, long cutoff, Dictionary dictionary) {
+        if (p.lastActive() >= cutoff)
+            return false;
+        synchronized (parked) {
+            synchronized (p) {
+                if (sessions.get(p.name) != p || !parked.park(p, dictionary))
+                    return false;
+                sessions.remove(p.name, p);
+                return true;
+            }
+        }
+    }
+
+    /**************************************************************************
+     * Parker
+     *
+     * One pass of parking over the map, run on the thread of the players in
+     * tasks of at most PARK_BATCH sessions each, so the calls queued for that
+     * thread run in between instead of waiting for the whole pass. A new pass
+     * only starts once the last one is through the map.
+     **************************************************************************/
+    private final class Parker implements Runnable {
+        private final long parkMillis;
+        private final Executor executor;
+        private final Supplier<Dictionary> dictionary;
+        private final AtomicBoolean running = new AtomicBoolean();
+        // only used by the tasks of one pass, which run one after the other
+        private Iterator<Player> pass;
+        private long cutoff;
+
+        Parker(long parkMillis, Executor executor, Supplier<Dictionary> dictionary) {
+            this.parkMillis = parkMillis;
+            this.executor = executor;
+            this.dictionary = dictionary;
+        }
+
+        void start() {
+            if (running.compareAndSet(false, true))
+                submit();
+        }
+
+        private void submit() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // the server is shutting down
+                pass = null;
+                running.set(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (pass == null) {
+                pass = sessions.values().iterator();
+                cutoff = System.currentTimeMillis() - parkMillis;
+            }
+            Dictionary current = dictionary.get();
+            for (int i = 0; i < PARK_BATCH && pass.hasNext(); i++)
+                park(pass.next(), cutoff, current);
+            if (pass.hasNext()) {
+                submit();
+            } else {
+                pass = null;
+                running.set(false);
+            }
+        }
+    }
+
+    /**************************************************************************
+     * evictIdle
+     *
+     * Evicts every session that has not been used for the given time. A session
+     * is only removed if the name still maps to the same Player, so a player who
+     * ended the game and registered again during the sweep keeps the new session.
+     * Returns the number of sessions evicted.
+     **************************************************************************/
+    public int evictIdle(long idleMillis, Consumer<Player> onEvict) {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        int evicted = 0;
+        for (Player p : sessions.values()) {
+            if (p.lastActive() < cutoff && evict(p)) {
+                live.decrementAndGet();
+                evicted++;
+                onEvict.accept(p);
+            }
+        }
+        if (parked != null) {
+            int gone = parked.evictIdle(cutoff, onEvict);
+            live.addAndGet(-gone);
+            evicted += gone;
+        }
+        evictions.add(evicted);
+        return evicted;
+    }
+
+    // under the store's monitor, so a session being parked is not evicted from the map as well
+    private boolean evict(Player p) {
+        if (parked == null)
+            return sessions.remove(p.name, p);
+        synchronized (parked) {
+            return sessions.remove(p.name, p);
+        }
+    }
+
+    /**************************************************************************
+     * clear
+     *
+     * Evicts every session, passing each evicted player to onEvict.
+     **************************************************************************/
+    public int clear(Consumer<Player> onEvict) {
+        return evictIdle(Long.MIN_VALUE / 2, onEvict);
+    }
+
+    public synchronized void shutdown() {
+        if (sweeper != null)
+            sweeper.shutdownNow();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Authors: Stefan Stojsic, Colton Aylix
+ *
+ * Standing.java
+ *
+ * Standing is the place of one player on the Leaderboard: the total score, the rank among all players (players with
+ * the same score share a rank, 1 is the best) and the percentile, the percent of players whose score is the same or
+ * lower.
+ */
+import java.io.Serializable;
+
+public final class Standing implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String player;
+    private final int score;
+    private final int rank;
+    private final int players;
+    private final double percentile;
+
+    public Standing(String player, int score, int rank, int players, double percentile) {
+        this.player = player;
+        this.score = score;
+        this.rank = rank;
+        this.players = players;
+        this.percentile = percentile;
+    }
+
+    public String getPlayer() {
+        return player;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public int getRank() {
+        return rank;
+    }
+
+    /** The number of players on the leaderboard when the standing was taken. */
+    public int getPlayers() {
+        return players;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("#%d %s %d (%.1f%%)", rank, player, score, percentile);
+    }
+}